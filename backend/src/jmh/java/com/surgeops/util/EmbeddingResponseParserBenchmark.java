@@ -0,0 +1,91 @@
+package com.surgeops.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EmbeddingResponseParser} with the tree parse it replaced (readTree, then copying
+ * every node into a float array) on a synthetic full-batch embeddings response. Run with the
+ * {@code jmh} profile; {@code -prof gc} is on by default, so allocation per parse is reported as
+ * {@code gc.alloc.rate.norm}:
+ *
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="-p inputs=16 -p dim=3072"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddingResponseParserBenchmark {
+
+    @Param({"300"})
+    int inputs;
+
+    @Param({"1536"})
+    int dim;
+
+    private byte[] body;
+    private EmbeddingResponseParser parser;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        body = response(inputs, dim, new Random(42));
+        parser = new EmbeddingResponseParser(JsonFactory.builder()
+                .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+                .build());
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public List<float[]> streaming() throws IOException {
+        return parser.parse(body, dim);
+    }
+
+    @Benchmark
+    public List<float[]> tree() throws IOException {
+        JsonNode data = objectMapper.readTree(body).path("data");
+        float[][] result = new float[data.size()][];
+        int position = 0;
+        for (JsonNode item : data) {
+            JsonNode embedding = item.path("embedding");
+            float[] vec = new float[embedding.size()];
+            for (int i = 0; i < vec.length; i++) {
+                vec[i] = embedding.get(i).floatValue();
+            }
+            result[item.path("index").asInt(position++)] = vec;
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Embeddings response shaped like Azure OpenAI's, with values printed as the service does.
+     */
+    static byte[] response(int inputs, int dim, Random random) {
+        StringBuilder json = new StringBuilder(inputs * dim * 14).append("{\"object\":\"list\",\"data\":[");
+        for (int i = 0; i < inputs; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+            for (int d = 0; d < dim; d++) {
+                json.append(d == 0 ? "" : ",").append((float) (random.nextGaussian() * 0.03));
+            }
+            json.append("]}");
+        }
+        json.append("],\"model\":\"text-embedding-3-large\",\"usage\":{\"prompt_tokens\":")
+                .append(inputs * 8).append(",\"total_tokens\":").append(inputs * 8).append("}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
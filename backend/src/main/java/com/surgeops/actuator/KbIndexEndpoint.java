@@ -0,0 +1,80 @@
+package com.surgeops.actuator;
+
+import com.surgeops.dto.IndexBenchmarkDto;
+import com.surgeops.service.KbIndexBenchmarkService;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Actuator endpoint running the vector index recall/latency benchmark:
+ * {@code POST /actuator/kbindex} with optional {@code queries}, {@code k} and comma separated
+ * {@code values} (ef_search for HNSW, probes for ivfflat).
+ *
+ * <p>The benchmark runs index and exact scans against the live database, so the endpoint is not
+ * exposed over HTTP unless added to {@code management.endpoints.web.exposure.include}. Query and
+ * result counts are capped, and malformed or out-of-range input is rejected with a 400.
+ */
+@Component
+@Endpoint(id = "kbindex")
+public class KbIndexEndpoint {
+
+    private static final int MAX_QUERIES = 500;
+    private static final int MAX_K = 100;
+    private static final int MAX_VALUES = 10;
+    private static final int MAX_VALUE = 1000;
+
+    private final KbIndexBenchmarkService benchmarkService;
+
+    public KbIndexEndpoint(KbIndexBenchmarkService benchmarkService) {
+        this.benchmarkService = benchmarkService;
+    }
+
+    @WriteOperation
+    public IndexBenchmarkDto benchmark(@Nullable Integer queries, @Nullable Integer k, @Nullable String values) {
+        int queryCount = Math.min(positive("queries", queries, 50), MAX_QUERIES);
+        int resultCount = Math.min(positive("k", k, 5), MAX_K);
+        return benchmarkService.run(queryCount, resultCount, settings(values));
+    }
+
+    private static int positive(String name, Integer value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value < 1) {
+            throw new InvalidEndpointRequestException(name + " must be positive", name + " must be positive");
+        }
+        return value;
+    }
+
+    private static List<Integer> settings(String values) {
+        if (values == null || values.isBlank()) {
+            return List.of(10, 20, 40, 80, 160);
+        }
+        String[] parts = values.split(",");
+        if (parts.length > MAX_VALUES) {
+            throw invalidValues("at most " + MAX_VALUES + " values are allowed");
+        }
+        return Arrays.stream(parts).map(String::trim).map(part -> {
+            int value;
+            try {
+                value = Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                throw invalidValues("'" + part + "' is not a number");
+            }
+            if (value < 1 || value > MAX_VALUE) {
+                throw invalidValues(value + " is outside 1-" + MAX_VALUE);
+            }
+            return value;
+        }).toList();
+    }
+
+    private static InvalidEndpointRequestException invalidValues(String reason) {
+        return new InvalidEndpointRequestException("Invalid values: " + reason, "Invalid values: " + reason);
+    }
+}
@@ -0,0 +1,12 @@
+package com.surgeops.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the scheduled background jobs used for rollup verification, cache refresh and retention.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,16 +1,87 @@
 package com.surgeops.config;
 
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 /**
- * Configuration for WebClient used to call external HTTP APIs such as Open‑Meteo and Azure OpenAI.
+ * Configuration for the WebClients used to call external HTTP APIs. Each upstream (Azure OpenAI,
+ * Open‑Meteo) gets its own named connection pool, so a slow upstream cannot hold the connections
+ * another needs, with settings read from {@code app.http.<name>.*}: pool size and acquire timeout,
+ * idle and lifetime eviction of pooled connections, connect and response timeouts, gzip and
+ * optionally HTTP/2 (negotiated over TLS, falling back to HTTP/1.1).
+ *
+ * <p>Pool and client metrics are exported to Micrometer as {@code reactor.netty.connection.provider.*}
+ * and {@code reactor.netty.http.client.*}, tagged with the pool name; request metrics use the pool
+ * name in place of the URI to keep their cardinality bounded.
  */
 @Configuration
 public class WebClientConfig {
+
+    /**
+     * Defaults of one upstream's settings, overridable per property.
+     */
+    private record Defaults(int maxConnections, long connectTimeoutMs, long responseTimeoutMs) {}
+
+    // Streamed completions go quiet between tokens, so the LLM response timeout is generous
+    private static final Defaults LLM = new Defaults(16, 5_000, 60_000);
+    private static final Defaults WEATHER = new Defaults(8, 3_000, 10_000);
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider llmConnectionProvider(Environment environment) {
+        return connectionProvider("llm", environment, LLM);
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider weatherConnectionProvider(Environment environment) {
+        return connectionProvider("weather", environment, WEATHER);
+    }
+
     @Bean
-    public WebClient.Builder webClientBuilder() {
-        return WebClient.builder();
+    public WebClient.Builder llmWebClientBuilder(@Qualifier("llmConnectionProvider") ConnectionProvider provider,
+                                                 Environment environment) {
+        return webClientBuilder("llm", provider, environment, LLM);
+    }
+
+    @Bean
+    public WebClient.Builder weatherWebClientBuilder(@Qualifier("weatherConnectionProvider") ConnectionProvider provider,
+                                                     Environment environment) {
+        return webClientBuilder("weather", provider, environment, WEATHER);
+    }
+
+    private static ConnectionProvider connectionProvider(String name, Environment env, Defaults defaults) {
+        String prefix = "app.http." + name + ".";
+        return ConnectionProvider.builder(name)
+                .maxConnections(env.getProperty(prefix + "max-connections", Integer.class, defaults.maxConnections()))
+                .pendingAcquireTimeout(Duration.ofMillis(env.getProperty(prefix + "pending-acquire-timeout-ms", Long.class, 10_000L)))
+                .maxIdleTime(Duration.ofMillis(env.getProperty(prefix + "max-idle-ms", Long.class, 30_000L)))
+                .maxLifeTime(Duration.ofMillis(env.getProperty(prefix + "max-life-ms", Long.class, 300_000L)))
+                .evictInBackground(Duration.ofMillis(env.getProperty(prefix + "evict-interval-ms", Long.class, 30_000L)))
+                .metrics(true)
+                .build();
+    }
+
+    private static WebClient.Builder webClientBuilder(String name, ConnectionProvider provider, Environment env,
+                                                      Defaults defaults) {
+        String prefix = "app.http." + name + ".";
+        long connectTimeoutMs = env.getProperty(prefix + "connect-timeout-ms", Long.class, defaults.connectTimeoutMs());
+        HttpClient client = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(env.getProperty(prefix + "response-timeout-ms", Long.class, defaults.responseTimeoutMs())))
+                .compress(env.getProperty(prefix + "compress", Boolean.class, true))
+                .metrics(true, uri -> name);
+        if (env.getProperty(prefix + "http2", Boolean.class, false)) {
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return WebClient.builder().clientConnector(new ReactorClientHttpConnector(client));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package com.surgeops.controller;
+
+import com.surgeops.dto.ChatRequest;
+import com.surgeops.dto.ChatResponse;
+import com.surgeops.service.ChatService;
+import jakarta.validation.Valid;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/**
+ * REST endpoint for the SurgeOps assistant chat.
+ */
+@RestController
+@RequestMapping("/chat")
+public class ChatController {
+
+    private final ChatService chatService;
+
+    public ChatController(ChatService chatService) {
+        this.chatService = chatService;
+    }
+
+    @PostMapping
+    public ChatResponse chat(@Valid @RequestBody ChatRequest request) {
+        return chatService.chat(request);
+    }
+
+    /**
+     * Stream the answer as server-sent events: a {@code session} event carrying the session ID,
+     * one {@code token} event per reply fragment as it is generated, then a {@code done} event, or
+     * an {@code error} event instead if the reply was cut short. Closing the connection cancels
+     * generation.
+     */
+    @PostMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> stream(@Valid @RequestBody ChatRequest request) {
+        String sessionId = chatService.startSession(request);
+        return Flux.just(ServerSentEvent.builder(sessionId).event("session").build())
+                .concatWith(chatService.stream(request)
+                        .map(token -> ServerSentEvent.builder(token).event("token").build()))
+                .concatWith(Flux.just(ServerSentEvent.builder("").event("done").build()))
+                .onErrorResume(ex -> Flux.just(ServerSentEvent.builder("Reply interrupted").event("error").build()));
+    }
+}
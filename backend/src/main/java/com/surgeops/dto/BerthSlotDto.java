@@ -0,0 +1,17 @@
+package com.surgeops.dto;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * DTO representing a free window on a berth's occupancy timeline.
+ */
+public record BerthSlotDto(
+        String berthCode,
+        String start,
+        String end
+) {
+    public static String formatInstant(Instant instant) {
+        return DateTimeFormatter.ISO_INSTANT.format(instant);
+    }
+}
@@ -1,14 +1,20 @@
 package com.surgeops.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 
 /**
- * Request body for chat endpoint.
+ * Request body for chat endpoint. The session ID is optional; it is returned with every answer
+ * and should be sent with follow-up questions to keep the conversation's context.
  */
 public class ChatRequest {
     @NotBlank
+    @Size(max = 2000)
     private String message;
 
+    @Size(max = 64)
+    private String sessionId;
+
     public String getMessage() {
         return message;
     }
@@ -16,4 +22,12 @@ public class ChatRequest {
     public void setMessage(String message) {
         this.message = message;
     }
-}
\ No newline at end of file
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+}
@@ -2,5 +2,7 @@ package com.surgeops.dto;
 
 /**
  * Response body for chat endpoint.
+ *
+ * @param sessionId conversation session to send with follow-up questions
  */
-public record ChatResponse(String answer) {}
\ No newline at end of file
+public record ChatResponse(String answer, String sessionId) {}
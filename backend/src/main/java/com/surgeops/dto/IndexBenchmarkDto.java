@@ -0,0 +1,41 @@
+package com.surgeops.dto;
+
+import java.util.List;
+
+/**
+ * Recall and latency of the kb_chunks vector index measured against exact (sequential scan)
+ * float32 nearest neighbours, plus the index's memory footprint.
+ *
+ * @param indexType    configured index method (hnsw or ivfflat)
+ * @param storage      vector storage in the index (float32 or halfvec)
+ * @param indexBytes   size of the vector index on disk
+ * @param bytesPerVector         bytes per indexed vector with the configured storage
+ * @param float32BytesPerVector  bytes per indexed vector with float32 storage
+ * @param estimatedBytesSaved    vector bytes saved across all rows compared with float32
+ * @param rows         embedded chunks in the knowledge base
+ * @param queries      number of sample queries
+ * @param k            neighbours requested per query
+ * @param exactP50Ms   median latency of the exact search
+ * @param exactP95Ms   95th percentile latency of the exact search
+ * @param settings     one result per search parameter value
+ */
+public record IndexBenchmarkDto(String indexType,
+                                String storage,
+                                long indexBytes,
+                                long bytesPerVector,
+                                long float32BytesPerVector,
+                                long estimatedBytesSaved,
+                                long rows,
+                                int queries,
+                                int k,
+                                double exactP50Ms,
+                                double exactP95Ms,
+                                List<Setting> settings) {
+
+    /**
+     * @param parameter search parameter varied (hnsw.ef_search or ivfflat.probes)
+     * @param value     parameter value
+     * @param recall    mean recall@k against the exact result
+     */
+    public record Setting(String parameter, int value, double recall, double p50Ms, double p95Ms) {}
+}
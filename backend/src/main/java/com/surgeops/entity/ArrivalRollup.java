@@ -0,0 +1,28 @@
+package com.surgeops.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.Instant;
+
+/**
+ * Hourly bucket of vessel arrivals and projected TEU keyed by the UTC start of the hour.
+ * Maintained incrementally by vessel writes and periodically verified against the vessels table.
+ */
+@Entity
+@Table(name = "arrival_rollup")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ArrivalRollup {
+
+    @Id
+    @Column(name = "bucket_start", nullable = false, updatable = false)
+    private Instant bucketStart;
+
+    @Column(name = "arrivals", nullable = false)
+    private Integer arrivals;
+
+    @Column(name = "projected_teu", nullable = false)
+    private Long projectedTeu;
+}
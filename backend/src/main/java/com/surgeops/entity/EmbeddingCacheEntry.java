@@ -0,0 +1,43 @@
+package com.surgeops.entity;
+
+import com.surgeops.util.PgVectorType;
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.Type;
+import java.time.Instant;
+
+/**
+ * Persistent cache of embeddings keyed by the SHA-256 hash of the embedded text, the deployment
+ * used and the requested dimension, so unchanged knowledge base content is never re-embedded.
+ */
+@Entity
+@Table(name = "embedding_cache")
+@IdClass(EmbeddingCacheKey.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EmbeddingCacheEntry {
+
+    @Id
+    @Column(name = "content_hash", nullable = false, updatable = false)
+    private String contentHash;
+
+    @Id
+    @Column(name = "deployment", nullable = false, updatable = false)
+    private String deployment;
+
+    @Id
+    @Column(name = "dimensions", nullable = false, updatable = false)
+    private int dimensions;
+
+    /**
+     * Embedding vector, mapped like {@link KbChunk#getEmbedding()}.
+     */
+    @Type(PgVectorType.class)
+    @Column(name = "embedding", columnDefinition = "vector", nullable = false)
+    private float[] embedding;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,17 @@
+package com.surgeops.entity;
+
+import lombok.*;
+import java.io.Serializable;
+
+/**
+ * Composite identifier of an {@link EmbeddingCacheEntry}: the content hash, the embeddings
+ * deployment that produced the vector and its dimension.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmbeddingCacheKey implements Serializable {
+    private String contentHash;
+    private String deployment;
+    private int dimensions;
+}
@@ -1,7 +1,9 @@
 package com.surgeops.entity;
 
+import com.surgeops.util.PgVectorType;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Type;
 import java.time.Instant;
 import java.util.UUID;
 
@@ -41,11 +43,17 @@ public class KbChunk {
     private String meta;
 
     /**
-     * Embedding vector stored as a comma separated list of floats. When issuing
-     * similarity queries we cast the string to a vector on the database side.
+     * SHA-256 hash of the content, used to skip re-embedding unchanged chunks.
      */
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    /**
+     * Embedding vector, transferred to and from the pgvector column in binary form.
+     */
+    @Type(PgVectorType.class)
     @Column(name = "embedding", columnDefinition = "vector")
-    private String embedding;
+    private float[] embedding;
 
     @Column(name = "updated_at", nullable = false)
     private Instant updatedAt = Instant.now();
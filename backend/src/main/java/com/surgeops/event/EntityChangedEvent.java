@@ -0,0 +1,16 @@
+package com.surgeops.event;
+
+/**
+ * Application event published after a write to an entity that feeds the knowledge base or the
+ * grounding facts. Events are value objects so repeated changes to the same entity coalesce.
+ *
+ * @param kind entity kind, matching the kb_chunks kind column (vessel, yard_block, berth, alert, weather)
+ * @param key  source key of the entity, e.g. vessel ID or block code
+ */
+public record EntityChangedEvent(String kind, String key) {
+    public static final String VESSEL = "vessel";
+    public static final String YARD_BLOCK = "yard_block";
+    public static final String BERTH = "berth";
+    public static final String ALERT = "alert";
+    public static final String WEATHER = "weather";
+}
@@ -0,0 +1,10 @@
+package com.surgeops.event;
+
+/**
+ * Application event published whenever readers of the knowledge base may observe different
+ * content, either after an incremental refresh or after a shadow generation was swapped in.
+ *
+ * @param version    monotonically increasing in-process content version
+ * @param generation active kb_chunks table generation
+ */
+public record KbChangedEvent(long version, long generation) {}
@@ -1,6 +1,7 @@
 package com.surgeops.repo;
 
 import com.surgeops.entity.Alert;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -23,4 +24,11 @@ public interface AlertRepository extends JpaRepository<Alert, UUID> {
      * Returns all alerts ordered descending by createdAt.
      */
     List<Alert> findAllByOrderByCreatedAtDesc();
+
+    /**
+     * Returns the most recent alerts, newest first.
+     */
+    List<Alert> findByOrderByCreatedAtDesc(Limit limit);
+
+    long countByAcknowledgedFalse();
 }
\ No newline at end of file
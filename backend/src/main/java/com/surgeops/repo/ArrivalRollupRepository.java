@@ -0,0 +1,101 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.ArrivalRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ArrivalRollupRepository extends JpaRepository<ArrivalRollup, Instant> {
+
+    /**
+     * Atomically adds the given deltas to an hourly bucket, creating the bucket if needed.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO arrival_rollup (bucket_start, arrivals, projected_teu)
+            VALUES (:bucket, :arrivals, :teu)
+            ON CONFLICT (bucket_start) DO UPDATE
+            SET arrivals = arrival_rollup.arrivals + EXCLUDED.arrivals,
+                projected_teu = arrival_rollup.projected_teu + EXCLUDED.projected_teu
+            """, nativeQuery = true)
+    void applyDelta(@Param("bucket") Instant bucket, @Param("arrivals") int arrivals, @Param("teu") long teu);
+
+    @Query("SELECT COALESCE(SUM(r.arrivals), 0) FROM ArrivalRollup r WHERE r.bucketStart >= :start AND r.bucketStart < :end")
+    long sumArrivals(@Param("start") Instant start, @Param("end") Instant end);
+
+    @Query("SELECT COALESCE(SUM(r.projectedTeu), 0) FROM ArrivalRollup r WHERE r.bucketStart >= :start AND r.bucketStart < :end")
+    long sumProjectedTeu(@Param("start") Instant start, @Param("end") Instant end);
+
+    /**
+     * Re-bins the hourly rollup into buckets of the given step (one hour or coarser) between start
+     * (inclusive) and end (exclusive), returning every bucket including empty ones.
+     *
+     * @return rows of [bucket start, arrivals, projected TEU] ordered by bucket
+     */
+    @Query(value = """
+            WITH arrivals AS (
+              SELECT date_bin(CAST(:step AS interval), r.bucket_start, TIMESTAMPTZ '2001-01-01 00:00:00+00') AS bucket,
+                     SUM(r.arrivals) AS arrivals,
+                     SUM(r.projected_teu) AS projected_teu
+              FROM arrival_rollup r
+              WHERE r.bucket_start >= date_bin(INTERVAL '1 hour', CAST(:start AS timestamptz), TIMESTAMPTZ '2001-01-01 00:00:00+00')
+                AND r.bucket_start < :end
+              GROUP BY 1
+            )
+            SELECT s.bucket, COALESCE(a.arrivals, 0), COALESCE(a.projected_teu, 0)
+            FROM generate_series(
+                   date_bin(CAST(:step AS interval), CAST(:start AS timestamptz), TIMESTAMPTZ '2001-01-01 00:00:00+00'),
+                   CAST(:end AS timestamptz) - interval '1 microsecond',
+                   CAST(:step AS interval)) AS s(bucket)
+            LEFT JOIN arrivals a ON a.bucket = s.bucket
+            ORDER BY s.bucket
+            """, nativeQuery = true)
+    List<Object[]> aggregate(@Param("start") Instant start, @Param("end") Instant end, @Param("step") String step);
+
+    /**
+     * Counts hourly buckets whose stored values differ from a fresh aggregation of the vessels table.
+     */
+    @Query(value = """
+            SELECT COUNT(*) FROM (
+              SELECT date_bin(INTERVAL '1 hour', eta, TIMESTAMPTZ '2001-01-01 00:00:00+00') AS bucket_start,
+                     COUNT(*) AS arrivals,
+                     COALESCE(SUM(expected_teu), 0) AS projected_teu
+              FROM vessels
+              WHERE eta IS NOT NULL
+              GROUP BY 1
+            ) fresh
+            FULL OUTER JOIN (SELECT * FROM arrival_rollup WHERE arrivals <> 0 OR projected_teu <> 0) r
+              ON r.bucket_start = fresh.bucket_start
+            WHERE fresh.bucket_start IS NULL OR r.bucket_start IS NULL
+               OR fresh.arrivals <> r.arrivals OR fresh.projected_teu <> r.projected_teu
+            """, nativeQuery = true)
+    long countDriftedBuckets();
+
+    /**
+     * Blocks concurrent delta writers for the rest of the transaction so a rebuild sees a
+     * consistent vessels snapshot.
+     */
+    @Modifying
+    @Query(value = "LOCK TABLE arrival_rollup IN EXCLUSIVE MODE", nativeQuery = true)
+    void lockForRebuild();
+
+    @Modifying
+    @Query(value = "DELETE FROM arrival_rollup", nativeQuery = true)
+    void deleteAllBuckets();
+
+    @Modifying
+    @Query(value = """
+            INSERT INTO arrival_rollup (bucket_start, arrivals, projected_teu)
+            SELECT date_bin(INTERVAL '1 hour', eta, TIMESTAMPTZ '2001-01-01 00:00:00+00'), COUNT(*), COALESCE(SUM(expected_teu), 0)
+            FROM vessels
+            WHERE eta IS NOT NULL
+            GROUP BY 1
+            """, nativeQuery = true)
+    int insertFromVessels();
+}
@@ -2,8 +2,10 @@ package com.surgeops.repo;
 
 import com.surgeops.entity.BerthAssignment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
@@ -11,4 +13,22 @@ import java.util.UUID;
 public interface BerthAssignmentRepository extends JpaRepository<BerthAssignment, UUID> {
     List<BerthAssignment> findByBerth_Code(String code);
     List<BerthAssignment> findByVessel_VesselId(UUID vesselId);
-}
\ No newline at end of file
+
+    /**
+     * Returns all assignments with their berth fetched in the same query. Used to seed the
+     * in-memory occupancy timeline without one berth lookup per assignment.
+     */
+    @Query("SELECT a FROM BerthAssignment a JOIN FETCH a.berth")
+    List<BerthAssignment> findAllWithBerth();
+
+    /**
+     * Whether another assignment on the berth occupies part of the window. Occupancy follows the
+     * timeline's rules: actual times over planned ones, a missing end treated as openEnd, and
+     * assignments without a start or with an empty window ignored.
+     */
+    @Query("SELECT COUNT(a) > 0 FROM BerthAssignment a WHERE a.berth.code = :code AND a.assignmentId <> :exclude"
+            + " AND COALESCE(a.actualStart, a.plannedStart) < :end"
+            + " AND COALESCE(a.actualEnd, a.plannedEnd, :openEnd) > :start"
+            + " AND COALESCE(a.actualEnd, a.plannedEnd, :openEnd) > COALESCE(a.actualStart, a.plannedStart)")
+    boolean existsOverlapping(String code, UUID exclude, Instant start, Instant end, Instant openEnd);
+}
@@ -1,13 +1,25 @@
 package com.surgeops.repo;
 
 import com.surgeops.entity.Berth;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface BerthRepository extends JpaRepository<Berth, UUID> {
     Optional<Berth> findByCode(String code);
+    List<Berth> findAllByOrderByCodeAsc();
+
+    /**
+     * Returns the berth locked for update, serialising assignment writes to it until commit.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM Berth b WHERE b.code = :code")
+    Optional<Berth> findByCodeForUpdate(String code);
 }
\ No newline at end of file
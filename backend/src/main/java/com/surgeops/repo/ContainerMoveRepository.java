@@ -2,6 +2,8 @@ package com.surgeops.repo;
 
 import com.surgeops.entity.ContainerMove;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
@@ -11,4 +13,10 @@ import java.util.UUID;
 @Repository
 public interface ContainerMoveRepository extends JpaRepository<ContainerMove, UUID> {
     List<ContainerMove> findByTsAfter(Instant since);
+
+    /**
+     * Total TEU moved after the given timestamp.
+     */
+    @Query("SELECT COALESCE(SUM(m.teu), 0) FROM ContainerMove m WHERE m.ts > :since")
+    long sumTeuAfter(@Param("since") Instant since);
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.EmbeddingCacheEntry;
+import com.surgeops.entity.EmbeddingCacheKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, EmbeddingCacheKey>, EmbeddingCacheRepositoryCustom {
+    List<EmbeddingCacheEntry> findByDeploymentAndDimensionsAndContentHashIn(String deployment, int dimensions,
+                                                                             Collection<String> contentHashes);
+}
@@ -0,0 +1,19 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.EmbeddingCacheEntry;
+
+import java.util.List;
+
+/**
+ * Custom bulk operations for the embedding cache that bypass per-entity persistence.
+ */
+public interface EmbeddingCacheRepositoryCustom {
+
+    /**
+     * Insert all entries in a single JDBC batch, skipping any already cached (e.g. by a concurrent
+     * ingest of the same content).
+     *
+     * @return number of rows inserted
+     */
+    int insertAll(List<EmbeddingCacheEntry> entries);
+}
@@ -0,0 +1,43 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.EmbeddingCacheEntry;
+import com.surgeops.util.PgVector;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JDBC-backed implementation of {@link EmbeddingCacheRepositoryCustom}. Entries have assigned
+ * composite IDs, so going through {@code saveAll} would issue a select per entity before inserting.
+ */
+public class EmbeddingCacheRepositoryCustomImpl implements EmbeddingCacheRepositoryCustom {
+
+    private static final String INSERT_SQL = "INSERT INTO embedding_cache (content_hash, deployment, dimensions, embedding, created_at) "
+            + "VALUES (?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EmbeddingCacheRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int insertAll(List<EmbeddingCacheEntry> entries) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(INSERT_SQL, entries, entries.size(), (ps, entry) -> {
+            PgVector.register(ps.getConnection());
+            ps.setString(1, entry.getContentHash());
+            ps.setString(2, entry.getDeployment());
+            ps.setInt(3, entry.getDimensions());
+            ps.setObject(4, new PgVector(entry.getEmbedding()));
+            ps.setObject(5, OffsetDateTime.ofInstant(entry.getCreatedAt(), ZoneOffset.UTC));
+        })[0];
+        return Arrays.stream(counts).map(c -> c == Statement.SUCCESS_NO_INFO ? 1 : c).sum();
+    }
+}
@@ -0,0 +1,99 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.KbChunk;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Custom vector search operations on {@link KbChunk}, implemented with plain JDBC so the query
+ * vector is bound in pgvector's binary format and index search parameters can be set per query.
+ */
+public interface KbChunkRepositoryCustom {
+
+    /**
+     * Per-query index search parameters. Null values use the configured defaults.
+     *
+     * @param efSearch size of the HNSW candidate list (higher is slower with better recall)
+     * @param probes   number of ivfflat lists scanned (higher is slower with better recall)
+     */
+    record SearchParams(Integer efSearch, Integer probes) {
+        public static final SearchParams DEFAULTS = new SearchParams(null, null);
+    }
+
+    /**
+     * Returns the top n chunks ordered by cosine distance (pgvector operator {@code <=>}) between
+     * their embedding and the given vector, using the configured default search parameters. The
+     * returned chunks are read-only and do not carry their embedding, which retrieval never needs.
+     *
+     * @param embedding query vector
+     * @param limit     maximum number of results
+     */
+    default List<KbChunk> findNearest(float[] embedding, int limit) {
+        return findNearest(embedding, limit, SearchParams.DEFAULTS);
+    }
+
+    /**
+     * Same as {@link #findNearest(float[], int)} with explicit index search parameters.
+     */
+    default List<KbChunk> findNearest(float[] embedding, int limit, SearchParams params) {
+        return findNearest(embedding, limit, params, null);
+    }
+
+    /**
+     * Same as {@link #findNearest(float[], int, SearchParams)}, restricted to the given kinds.
+     *
+     * @param kinds chunk kinds to search (null or empty for all)
+     */
+    List<KbChunk> findNearest(float[] embedding, int limit, SearchParams params, Collection<String> kinds);
+
+    /**
+     * Full-text search over chunk titles and content, ordered by ts_rank_cd. Any of the terms may
+     * match; chunks matching more of them, or matching in the title, rank higher.
+     *
+     * @param terms search terms, e.g. words and codes taken from the question
+     * @param kinds chunk kinds to search (null or empty for all)
+     */
+    List<KbChunk> findLexical(Collection<String> terms, int limit, Collection<String> kinds);
+
+    /**
+     * Exact nearest neighbours by sequential scan, bypassing any vector index. Used as ground truth
+     * when measuring index recall; slow on large tables.
+     */
+    List<KbChunk> findNearestExact(float[] embedding, int limit);
+
+    /**
+     * Return updated_at per id for every chunk that has an embedding, so a copy of the vectors held
+     * elsewhere can be brought up to date without reading unchanged embeddings.
+     */
+    Map<UUID, Instant> findEmbeddedVersions();
+
+    /**
+     * Return the given chunks including their embeddings, or all embedded chunks when ids is null.
+     */
+    List<KbChunk> findEmbedded(Collection<UUID> ids);
+
+    /**
+     * Return up to n embeddings sampled at random from the knowledge base.
+     */
+    List<float[]> sampleEmbeddings(int n);
+
+    /**
+     * Upsert the chunks on (kind, source_key, title) in a single JDBC batch. An existing row keeps
+     * its id and is only rewritten when its content hash differs or it lacks an embedding the new
+     * chunk carries, so a concurrent writer of the same content is neither duplicated nor undone.
+     *
+     * @return number of rows inserted or updated
+     */
+    int upsertAll(List<KbChunk> chunks);
+
+    /**
+     * Delete the rows with the same (kind, source_key, title) as the given chunks.
+     *
+     * @return number of rows deleted
+     */
+    int deleteAllByNaturalKey(Collection<KbChunk> chunks);
+}
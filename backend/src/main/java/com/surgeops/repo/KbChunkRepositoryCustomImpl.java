@@ -0,0 +1,250 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.KbChunk;
+import com.surgeops.util.PgVector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * JDBC-backed implementation of {@link KbChunkRepositoryCustom}. Index search parameters are set
+ * with set_config(..., is_local = true) inside a short read-only transaction, so they apply to the
+ * one query and never leak to other users of the pooled connection.
+ *
+ * <p>With halfvec storage the search runs in two stages: the halfvec index returns
+ * {@code limit * rerank-factor} candidates by approximate distance, which are then reranked by
+ * exact float32 distance so quantisation error only affects which candidates are considered.
+ */
+public class KbChunkRepositoryCustomImpl implements KbChunkRepositoryCustom {
+
+    private static final String COLUMNS = "id, kind, source_key, title, content, uri, meta, content_hash, updated_at";
+    private static final String KIND_FILTER = " WHERE kind = ANY(?)";
+    private static final String LEXICAL_SQL = "SELECT " + COLUMNS + " FROM kb_chunks, to_tsquery('english', ?) q "
+            + "WHERE tsv @@ q %s ORDER BY ts_rank_cd(tsv, q) DESC, updated_at DESC LIMIT ?";
+    private static final String UPSERT_SQL = "INSERT INTO kb_chunks "
+            + "(id, kind, source_key, title, content, uri, meta, content_hash, embedding, updated_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, CAST(? AS jsonb), ?, ?, ?) "
+            + "ON CONFLICT (kind, source_key, title) DO UPDATE SET content = EXCLUDED.content, "
+            + "content_hash = EXCLUDED.content_hash, embedding = EXCLUDED.embedding, updated_at = EXCLUDED.updated_at "
+            + "WHERE kb_chunks.content_hash IS DISTINCT FROM EXCLUDED.content_hash "
+            + "OR (kb_chunks.embedding IS NULL AND EXCLUDED.embedding IS NOT NULL)";
+    private static final String DELETE_SQL = "DELETE FROM kb_chunks WHERE kind = ? AND source_key = ? AND title = ?";
+
+    private static final RowMapper<KbChunk> ROW_MAPPER = (rs, rowNum) -> {
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        return KbChunk.builder()
+                .id(rs.getObject("id", UUID.class))
+                .kind(rs.getString("kind"))
+                .sourceKey(rs.getString("source_key"))
+                .title(rs.getString("title"))
+                .content(rs.getString("content"))
+                .uri(rs.getString("uri"))
+                .meta(rs.getString("meta"))
+                .contentHash(rs.getString("content_hash"))
+                .updatedAt(updatedAt != null ? updatedAt.toInstant() : null)
+                .build();
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int defaultEfSearch;
+    private final int defaultProbes;
+    private final boolean halfvec;
+    private final int rerankFactor;
+    private final int embeddingDim;
+
+    public KbChunkRepositoryCustomImpl(JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${app.kb.index.hnsw.ef-search:40}") int defaultEfSearch,
+                                       @Value("${app.kb.index.ivfflat.probes:10}") int defaultProbes,
+                                       @Value("${app.kb.index.storage:float32}") String storage,
+                                       @Value("${app.kb.index.rerank-factor:4}") int rerankFactor,
+                                       @Value("${azure.openai.embedding-dim:1536}") int embeddingDim) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.defaultEfSearch = defaultEfSearch;
+        this.defaultProbes = defaultProbes;
+        this.halfvec = "halfvec".equalsIgnoreCase(storage);
+        this.rerankFactor = Math.max(1, rerankFactor);
+        this.embeddingDim = embeddingDim;
+    }
+
+    @Override
+    public List<KbChunk> findNearest(float[] embedding, int limit, SearchParams params, Collection<String> kinds) {
+        boolean filtered = kinds != null && !kinds.isEmpty();
+        int efSearch = params.efSearch() != null ? params.efSearch() : defaultEfSearch;
+        int probes = params.probes() != null ? params.probes() : defaultProbes;
+        int candidates = halfvec ? limit * rerankFactor : limit;
+        return readOnlyTransaction.execute(status -> {
+            // HNSW returns at most ef_search rows, so never let it drop below the candidate count
+            jdbcTemplate.queryForList("SELECT set_config('hnsw.ef_search', ?, true), set_config('ivfflat.probes', ?, true)",
+                    String.valueOf(Math.max(efSearch, candidates)), String.valueOf(Math.max(1, probes)));
+            if (!halfvec) {
+                return query(embedding, limit, kinds);
+            }
+            String half = "halfvec(" + embeddingDim + ")";
+            String sql = "SELECT " + COLUMNS + " FROM (SELECT * FROM kb_chunks" + (filtered ? KIND_FILTER : "")
+                    + " ORDER BY embedding::" + half + " <=> ?::" + half + " LIMIT ?) candidates"
+                    + " ORDER BY embedding <=> ? LIMIT ?";
+            return jdbcTemplate.query(sql, ps -> {
+                PgVector.register(ps.getConnection());
+                PgVector vector = new PgVector(embedding);
+                int i = 1;
+                if (filtered) {
+                    ps.setArray(i++, ps.getConnection().createArrayOf("text", kinds.toArray()));
+                }
+                ps.setObject(i++, vector);
+                ps.setInt(i++, candidates);
+                ps.setObject(i++, vector);
+                ps.setInt(i, limit);
+            }, ROW_MAPPER);
+        });
+    }
+
+    @Override
+    public List<KbChunk> findNearestExact(float[] embedding, int limit) {
+        return readOnlyTransaction.execute(status -> {
+            jdbcTemplate.queryForList("SELECT set_config('enable_indexscan', 'off', true), set_config('enable_bitmapscan', 'off', true)");
+            return query(embedding, limit, null);
+        });
+    }
+
+    @Override
+    public List<KbChunk> findLexical(Collection<String> terms, int limit, Collection<String> kinds) {
+        String tsquery = toTsQuery(terms);
+        if (tsquery.isEmpty()) {
+            return List.of();
+        }
+        boolean filtered = kinds != null && !kinds.isEmpty();
+        String sql = String.format(LEXICAL_SQL, filtered ? "AND kind = ANY(?)" : "");
+        return jdbcTemplate.query(sql, ps -> {
+            int i = 1;
+            ps.setString(i++, tsquery);
+            if (filtered) {
+                ps.setArray(i++, ps.getConnection().createArrayOf("text", kinds.toArray()));
+            }
+            ps.setInt(i, limit);
+        }, ROW_MAPPER);
+    }
+
+    /**
+     * Build an OR tsquery from the terms. Each term is quoted so punctuation cannot break the query
+     * syntax; hyphenated codes stay single terms that the parser splits like the indexed text.
+     */
+    static String toTsQuery(Collection<String> terms) {
+        StringBuilder sb = new StringBuilder();
+        for (String term : terms) {
+            String cleaned = term.replaceAll("[^\\p{L}\\p{N}-]", "").replaceAll("^-+|-+$", "");
+            if (cleaned.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(" | ");
+            }
+            sb.append('\'').append(cleaned).append('\'');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<UUID, Instant> findEmbeddedVersions() {
+        Map<UUID, Instant> versions = new HashMap<>();
+        jdbcTemplate.query("SELECT id, updated_at FROM kb_chunks WHERE embedding IS NOT NULL",
+                rs -> {
+                    versions.put(rs.getObject(1, UUID.class), rs.getTimestamp(2).toInstant());
+                });
+        return versions;
+    }
+
+    @Override
+    public List<KbChunk> findEmbedded(Collection<UUID> ids) {
+        if (ids != null && ids.isEmpty()) {
+            return List.of();
+        }
+        String sql = "SELECT " + COLUMNS + ", embedding FROM kb_chunks WHERE embedding IS NOT NULL"
+                + (ids != null ? " AND id = ANY(?)" : "");
+        return jdbcTemplate.query(sql, ps -> {
+            PgVector.register(ps.getConnection());
+            if (ids != null) {
+                ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids.toArray()));
+            }
+        }, (rs, rowNum) -> {
+            KbChunk chunk = ROW_MAPPER.mapRow(rs, rowNum);
+            chunk.setEmbedding(PgVector.toArray(rs.getObject("embedding")));
+            return chunk;
+        });
+    }
+
+    @Override
+    public List<float[]> sampleEmbeddings(int n) {
+        return jdbcTemplate.query("SELECT embedding FROM kb_chunks WHERE embedding IS NOT NULL ORDER BY random() LIMIT ?",
+                ps -> {
+                    PgVector.register(ps.getConnection());
+                    ps.setInt(1, n);
+                },
+                (rs, rowNum) -> PgVector.toArray(rs.getObject(1)));
+    }
+
+    @Override
+    public int upsertAll(List<KbChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(UPSERT_SQL, chunks, chunks.size(), (ps, chunk) -> {
+            PgVector.register(ps.getConnection());
+            ps.setObject(1, chunk.getId());
+            ps.setString(2, chunk.getKind());
+            ps.setString(3, chunk.getSourceKey());
+            ps.setString(4, chunk.getTitle());
+            ps.setString(5, chunk.getContent());
+            ps.setString(6, chunk.getUri());
+            ps.setString(7, chunk.getMeta());
+            ps.setString(8, chunk.getContentHash());
+            ps.setObject(9, chunk.getEmbedding() != null ? new PgVector(chunk.getEmbedding()) : null, Types.OTHER);
+            ps.setTimestamp(10, Timestamp.from(chunk.getUpdatedAt()));
+        })[0];
+        return Arrays.stream(counts).map(c -> c == Statement.SUCCESS_NO_INFO ? 1 : c).sum();
+    }
+
+    @Override
+    public int deleteAllByNaturalKey(Collection<KbChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(DELETE_SQL, chunks, chunks.size(), (ps, chunk) -> {
+            ps.setString(1, chunk.getKind());
+            ps.setString(2, chunk.getSourceKey());
+            ps.setString(3, chunk.getTitle());
+        })[0];
+        return Arrays.stream(counts).map(c -> c == Statement.SUCCESS_NO_INFO ? 1 : c).sum();
+    }
+
+    private List<KbChunk> query(float[] embedding, int limit, Collection<String> kinds) {
+        boolean filtered = kinds != null && !kinds.isEmpty();
+        String sql = "SELECT " + COLUMNS + " FROM kb_chunks" + (filtered ? KIND_FILTER : "")
+                + " ORDER BY embedding <=> ? LIMIT ?";
+        return jdbcTemplate.query(sql, ps -> {
+            PgVector.register(ps.getConnection());
+            int i = 1;
+            if (filtered) {
+                ps.setArray(i++, ps.getConnection().createArrayOf("text", kinds.toArray()));
+            }
+            ps.setObject(i++, new PgVector(embedding));
+            ps.setInt(i, limit);
+        }, ROW_MAPPER);
+    }
+}
@@ -1,7 +1,12 @@
 package com.surgeops.repo;
 
 import com.surgeops.entity.Vessel;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
@@ -15,4 +20,50 @@ public interface VesselRepository extends JpaRepository<Vessel, UUID> {
     Optional<Vessel> findByImo(String imo);
     List<Vessel> findByEtaBetweenOrderByEtaAsc(Instant start, Instant end);
     List<Vessel> findByEtaAfterOrderByEtaAsc(Instant start);
+    List<Vessel> findByEtaAfterOrderByEtaAsc(Instant start, Limit limit);
+
+    /**
+     * Lookups returning the vessel locked for update, serialising upserts of it until commit so
+     * each one sees the ETA and TEU the previous one wrote.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Vessel v WHERE v.vesselId = :id")
+    Optional<Vessel> findByIdForUpdate(@Param("id") UUID id);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Vessel v WHERE v.imo = :imo")
+    Optional<Vessel> findByImoForUpdate(@Param("imo") String imo);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Vessel v WHERE v.name = :name")
+    Optional<Vessel> findByNameForUpdate(@Param("name") String name);
+
+    /**
+     * Aggregates arrivals and projected TEU per bucket of the given step between start (inclusive)
+     * and end (exclusive). Buckets are aligned with {@code date_bin} on a Monday origin so day and
+     * week buckets match {@code date_trunc}; every bucket in the range is returned, including empty ones.
+     *
+     * @param start range start
+     * @param end   range end
+     * @param step  bucket width as a Postgres interval literal, e.g. '15 minutes'
+     * @return rows of [bucket start, arrivals, projected TEU] ordered by bucket
+     */
+    @Query(value = """
+            WITH arrivals AS (
+              SELECT date_bin(CAST(:step AS interval), v.eta, TIMESTAMPTZ '2001-01-01 00:00:00+00') AS bucket,
+                     COUNT(*) AS arrivals,
+                     COALESCE(SUM(v.expected_teu), 0) AS projected_teu
+              FROM vessels v
+              WHERE v.eta >= :start AND v.eta < :end
+              GROUP BY 1
+            )
+            SELECT s.bucket, COALESCE(a.arrivals, 0), COALESCE(a.projected_teu, 0)
+            FROM generate_series(
+                   date_bin(CAST(:step AS interval), CAST(:start AS timestamptz), TIMESTAMPTZ '2001-01-01 00:00:00+00'),
+                   CAST(:end AS timestamptz) - interval '1 microsecond',
+                   CAST(:step AS interval)) AS s(bucket)
+            LEFT JOIN arrivals a ON a.bucket = s.bucket
+            ORDER BY s.bucket
+            """, nativeQuery = true)
+    List<Object[]> aggregateArrivals(@Param("start") Instant start, @Param("end") Instant end, @Param("step") String step);
 }
\ No newline at end of file
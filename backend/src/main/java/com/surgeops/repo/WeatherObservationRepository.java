@@ -2,14 +2,61 @@ package com.surgeops.repo;
 
 import com.surgeops.entity.WeatherObservation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface WeatherObservationRepository extends JpaRepository<WeatherObservation, UUID> {
+public interface WeatherObservationRepository extends JpaRepository<WeatherObservation, UUID>, WeatherObservationRepositoryCustom {
     List<WeatherObservation> findByLocationOrderByObservedAtDesc(String location);
     List<WeatherObservation> findByLocationAndObservedAtAfterOrderByObservedAtDesc(String location, Instant since);
+    Optional<WeatherObservation> findFirstByLocationOrderByObservedAtDesc(String location);
+
+    /**
+     * Returns the most recent observation for every location, newest first. Served from the
+     * (location, observed_at DESC) index rather than loading the whole table.
+     */
+    @Query(value = """
+            SELECT * FROM (
+              SELECT DISTINCT ON (location) *
+              FROM weather_observations
+              WHERE location IS NOT NULL
+              ORDER BY location, observed_at DESC
+            ) latest
+            ORDER BY observed_at DESC
+            """, nativeQuery = true)
+    List<WeatherObservation> findLatestPerLocation();
+
+    /**
+     * Thins observations older than the cutoff down to the latest one per location and hour.
+     *
+     * @return number of rows removed
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM weather_observations w
+            WHERE w.observed_at < :cutoff
+              AND w.id NOT IN (
+                SELECT DISTINCT ON (location, date_trunc('hour', observed_at)) id
+                FROM weather_observations
+                WHERE observed_at < :cutoff
+                ORDER BY location, date_trunc('hour', observed_at), observed_at DESC
+              )
+            """, nativeQuery = true)
+    int downsampleBefore(@Param("cutoff") Instant cutoff);
+
+    /**
+     * Removes all observations older than the cutoff.
+     *
+     * @return number of rows removed
+     */
+    @Modifying
+    @Query(value = "DELETE FROM weather_observations WHERE observed_at < :cutoff", nativeQuery = true)
+    int deleteBefore(@Param("cutoff") Instant cutoff);
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.WeatherObservation;
+
+import java.util.List;
+
+/**
+ * Custom bulk operations for weather observations that bypass per-entity persistence.
+ */
+public interface WeatherObservationRepositoryCustom {
+
+    /**
+     * Insert all observations in a single JDBC batch. Observations must carry their own IDs.
+     *
+     * @return number of rows inserted
+     */
+    int insertAll(List<WeatherObservation> observations);
+}
@@ -0,0 +1,46 @@
+package com.surgeops.repo;
+
+import com.surgeops.entity.WeatherObservation;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JDBC-backed implementation of {@link WeatherObservationRepositoryCustom}. Observations have
+ * assigned IDs, so going through {@code saveAll} would issue a select per entity before inserting.
+ */
+public class WeatherObservationRepositoryCustomImpl implements WeatherObservationRepositoryCustom {
+
+    private static final String INSERT_SQL = "INSERT INTO weather_observations "
+            + "(id, location, temperature, wind_speed, humidity, condition, icon, operational_impact, observed_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WeatherObservationRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int insertAll(List<WeatherObservation> observations) {
+        if (observations.isEmpty()) {
+            return 0;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(INSERT_SQL, observations, observations.size(), (ps, obs) -> {
+            ps.setObject(1, obs.getId());
+            ps.setString(2, obs.getLocation());
+            ps.setObject(3, obs.getTemperature());
+            ps.setObject(4, obs.getWindSpeed());
+            ps.setObject(5, obs.getHumidity());
+            ps.setString(6, obs.getCondition());
+            ps.setString(7, obs.getIcon());
+            ps.setString(8, obs.getOperationalImpact() != null ? obs.getOperationalImpact().name() : null);
+            ps.setObject(9, obs.getObservedAt() != null ? OffsetDateTime.ofInstant(obs.getObservedAt(), ZoneOffset.UTC) : null);
+        })[0];
+        return Arrays.stream(counts).map(c -> c == Statement.SUCCESS_NO_INFO ? 1 : c).sum();
+    }
+}
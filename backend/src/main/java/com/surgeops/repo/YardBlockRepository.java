@@ -2,12 +2,25 @@ package com.surgeops.repo;
 
 import com.surgeops.entity.YardBlock;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface YardBlockRepository extends JpaRepository<YardBlock, UUID> {
     Optional<YardBlock> findByCode(String code);
+
+    /**
+     * Returns the blocks with the highest utilisation (current count over capacity), highest first.
+     */
+    @Query(value = """
+            SELECT * FROM yard_blocks
+            ORDER BY CAST(current_count AS double precision) / NULLIF(capacity, 0) DESC NULLS LAST, code
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<YardBlock> findMostUtilized(@Param("limit") int limit);
 }
\ No newline at end of file
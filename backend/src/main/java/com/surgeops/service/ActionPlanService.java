@@ -52,7 +52,7 @@ public class ActionPlanService {
                         Map.of("role", "system", "content", system),
                         Map.of("role", "user", "content", user)
                 );
-                String reply = azureOpenAiService.chatCompletion(messages);
+                String reply = azureOpenAiService.chatCompletion(LlmGateway.Lane.PLAN, messages);
                 // Validate that reply is JSON
                 JsonNode node = objectMapper.readTree(reply.trim());
                 payload = node.toString();
@@ -2,8 +2,10 @@ package com.surgeops.service;
 
 import com.surgeops.dto.AlertDto;
 import com.surgeops.entity.Alert;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.AlertRepository;
 import jakarta.transaction.Transactional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
@@ -18,9 +20,11 @@ import java.util.stream.Collectors;
 @Service
 public class AlertService {
     private final AlertRepository alertRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public AlertService(AlertRepository alertRepository) {
+    public AlertService(AlertRepository alertRepository, ApplicationEventPublisher eventPublisher) {
         this.alertRepository = alertRepository;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -55,6 +59,7 @@ public class AlertService {
         return alertRepository.findById(id).map(alert -> {
             alert.setAcknowledged(true);
             alertRepository.save(alert);
+            eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.ALERT, alert.getAlertId().toString()));
             return toDto(alert);
         });
     }
@@ -0,0 +1,85 @@
+package com.surgeops.service;
+
+import com.surgeops.repo.ArrivalRollupRepository;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+
+/**
+ * Service maintaining the hourly arrival_rollup table. Vessel writes apply deltas to the affected
+ * buckets so chart and baseline reads never touch the vessels table; a scheduled job compares the
+ * rollup with a fresh aggregation and rebuilds it if any bucket has drifted.
+ */
+@Service
+public class ArrivalRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArrivalRollupService.class);
+
+    private final ArrivalRollupRepository rollupRepository;
+
+    public ArrivalRollupService(ArrivalRollupRepository rollupRepository) {
+        this.rollupRepository = rollupRepository;
+    }
+
+    /**
+     * Apply the change of a vessel's ETA and/or TEU to the rollup. The old contribution is removed
+     * from its bucket and the new one added, so an ETA moving between hours shifts the counts.
+     * Either side may be null for inserts or vessels without an ETA.
+     */
+    @Transactional
+    public void recordChange(Instant oldEta, Integer oldTeu, Instant newEta, Integer newTeu) {
+        Instant oldBucket = bucketOf(oldEta);
+        Instant newBucket = bucketOf(newEta);
+        long oldTeuValue = oldTeu != null ? oldTeu : 0;
+        long newTeuValue = newTeu != null ? newTeu : 0;
+        if (Objects.equals(oldBucket, newBucket)) {
+            if (newBucket != null && oldTeuValue != newTeuValue) {
+                rollupRepository.applyDelta(newBucket, 0, newTeuValue - oldTeuValue);
+            }
+            return;
+        }
+        if (oldBucket != null) {
+            rollupRepository.applyDelta(oldBucket, -1, -oldTeuValue);
+        }
+        if (newBucket != null) {
+            rollupRepository.applyDelta(newBucket, 1, newTeuValue);
+        }
+    }
+
+    /**
+     * Compare the rollup with the vessels table and rebuild it when any bucket differs.
+     *
+     * @return number of drifted buckets found (0 if the rollup was consistent)
+     */
+    @Scheduled(cron = "${app.rollup.verify-cron:0 17 * * * *}")
+    @Transactional
+    public long verifyAndRepair() {
+        long drifted = rollupRepository.countDriftedBuckets();
+        if (drifted > 0) {
+            log.warn("arrival_rollup drifted in {} buckets; rebuilding", drifted);
+            rebuild();
+        }
+        return drifted;
+    }
+
+    /**
+     * Recompute the whole rollup from the vessels table. Concurrent deltas wait on a table lock
+     * and are applied on top of the rebuilt values once this transaction commits.
+     */
+    @Transactional
+    public int rebuild() {
+        rollupRepository.lockForRebuild();
+        rollupRepository.deleteAllBuckets();
+        return rollupRepository.insertFromVessels();
+    }
+
+    private static Instant bucketOf(Instant eta) {
+        return eta != null ? eta.truncatedTo(ChronoUnit.HOURS) : null;
+    }
+}
@@ -1,45 +1,113 @@
 package com.surgeops.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.surgeops.service.LlmGateway.Lane;
+import com.surgeops.service.LlmGateway.RetryableStatusException;
+import com.surgeops.util.EmbeddingResponseParser;
+import com.surgeops.util.TokenCounter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Service for interacting with Azure OpenAI via REST. Supports chat completions and embeddings.
+ * Service for interacting with Azure OpenAI via REST. Supports chat completions, blocking or
+ * streamed token by token, and embeddings. Every request goes through the {@link LlmGateway} in
+ * the lane given by the caller, costed at its estimated prompt tokens plus the completion limit.
  */
 @Service
 public class AzureOpenAiService {
 
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SERVER_SENT_EVENTS =
+            new ParameterizedTypeReference<>() {};
+
     private final String endpoint;
     private final String apiKey;
     private final String apiVersion;
     private final String chatDeployment;
+    private final int chatMaxTokens;
     private final String embeddingsDeployment;
     private final int embeddingDim;
+    private final boolean sendDimensions;
+    private final int embeddingBatchMaxInputs;
+    private final int embeddingBatchMaxTokens;
+    private final int embeddingConcurrency;
+    private final int embeddingMaxRetries;
+    private final Duration embeddingTimeout;
+    private final Duration embeddingBackoffBase;
+    private final Duration embeddingBackoffMax;
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
+    private final EmbeddingResponseParser embeddingParser;
+    private final LlmGateway gateway;
 
     public AzureOpenAiService(@Value("${azure.openai.endpoint:}") String endpoint,
                               @Value("${azure.openai.api-key:}") String apiKey,
                               @Value("${azure.openai.api-version:2024-06-01}") String apiVersion,
                               @Value("${azure.openai.chat-deployment:gpt-4o-mini}") String chatDeployment,
+                              @Value("${azure.openai.chat-max-tokens:512}") int chatMaxTokens,
                               @Value("${azure.openai.embeddings-deployment:text-embedding-3-large}") String embeddingsDeployment,
                               @Value("${azure.openai.embedding-dim:1536}") int embeddingDim,
-                              WebClient.Builder builder) {
+                              @Value("${azure.openai.embeddings.send-dimensions:}") String sendDimensions,
+                              @Value("${azure.openai.embeddings.batch-max-inputs:256}") int embeddingBatchMaxInputs,
+                              @Value("${azure.openai.embeddings.batch-max-tokens:100000}") int embeddingBatchMaxTokens,
+                              @Value("${azure.openai.embeddings.concurrency:4}") int embeddingConcurrency,
+                              @Value("${azure.openai.embeddings.max-retries:6}") int embeddingMaxRetries,
+                              @Value("${azure.openai.embeddings.timeout-seconds:60}") long embeddingTimeoutSeconds,
+                              @Value("${azure.openai.embeddings.backoff-base-ms:500}") long embeddingBackoffBaseMs,
+                              @Value("${azure.openai.embeddings.backoff-max-ms:30000}") long embeddingBackoffMaxMs,
+                              @Value("${azure.openai.max-response-bytes:67108864}") int maxResponseBytes,
+                              @Qualifier("llmWebClientBuilder") WebClient.Builder builder,
+                              LlmGateway gateway) {
         this.endpoint = endpoint;
         this.apiKey = apiKey;
         this.apiVersion = apiVersion;
         this.chatDeployment = chatDeployment;
+        this.chatMaxTokens = chatMaxTokens;
         this.embeddingsDeployment = embeddingsDeployment;
         this.embeddingDim = embeddingDim;
-        this.webClient = builder.build();
+        // Only the text-embedding-3 models accept "dimensions"; older ones such as ada-002 reject it
+        this.sendDimensions = sendDimensions == null || sendDimensions.isBlank()
+                ? embeddingsDeployment.startsWith("text-embedding-3")
+                : Boolean.parseBoolean(sendDimensions.trim());
+        this.embeddingBatchMaxInputs = Math.max(1, embeddingBatchMaxInputs);
+        this.embeddingBatchMaxTokens = Math.max(1, embeddingBatchMaxTokens);
+        this.embeddingConcurrency = Math.max(1, embeddingConcurrency);
+        this.embeddingMaxRetries = Math.max(0, embeddingMaxRetries);
+        this.embeddingTimeout = Duration.ofSeconds(embeddingTimeoutSeconds);
+        this.embeddingBackoffBase = Duration.ofMillis(Math.max(1, embeddingBackoffBaseMs));
+        this.embeddingBackoffMax = Duration.ofMillis(Math.max(1, embeddingBackoffMaxMs));
+        // Embedding responses for full batches run to megabytes, well past the 256 KB codec default
+        this.webClient = builder.clone()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseBytes))
+                .build();
         this.objectMapper = new ObjectMapper();
+        this.embeddingParser = new EmbeddingResponseParser(JsonFactory.builder()
+                .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+                .build());
+        this.gateway = gateway;
     }
 
     /**
@@ -49,6 +117,14 @@ public class AzureOpenAiService {
         return endpoint != null && !endpoint.isBlank() && apiKey != null && !apiKey.isBlank();
     }
 
+    public String getEmbeddingsDeployment() {
+        return embeddingsDeployment;
+    }
+
+    public int getEmbeddingDim() {
+        return embeddingDim;
+    }
+
     /**
      * Make a simple chat completion call with a single prompt. The assistant will answer as a summarizer.
      */
@@ -59,34 +135,83 @@ public class AzureOpenAiService {
         List<Map<String, String>> messages = new ArrayList<>();
         messages.add(Map.of("role", "system", "content", "You are a helpful assistant that summarizes port events."));
         messages.add(Map.of("role", "user", "content", prompt));
-        return chatCompletion(messages);
+        return chatCompletion(Lane.SUMMARY, messages);
     }
 
     /**
-     * Perform a chat completion request with an arbitrary list of messages. Returns the assistant's reply.
+     * Perform a chat completion request with an arbitrary list of messages in the given gateway
+     * lane. Returns the assistant's reply.
      */
-    public String chatCompletion(List<Map<String, String>> messages) {
+    public String chatCompletion(Lane lane, List<Map<String, String>> messages) {
         if (!isConfigured()) {
             throw new IllegalStateException("Azure OpenAI is not configured");
         }
-        return chatCompletionInternal(messages);
+        return gateway.call(lane, chatDeployment, chatCost(messages), () -> webClient.post()
+                        .uri(chatUrl())
+                        .header("api-key", apiKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(chatBody(messages, false))
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .map(this::extractAssistantReply))
+                .block();
     }
 
-    private String chatCompletionInternal(List<Map<String, String>> messages) {
-        String url = String.format("%s/openai/deployments/%s/chat/completions?api-version=%s", endpoint, chatDeployment, apiVersion);
-        Map<String, Object> body = new HashMap<>();
-        body.put("messages", messages);
-        body.put("temperature", 0.1);
-        body.put("max_tokens", 512);
-        return webClient.post()
-                .uri(url)
+    /**
+     * Stream a chat completion, emitting each piece of the assistant's reply as it is generated.
+     * Uses the API's server-sent events mode; cancelling the subscription closes the connection,
+     * which stops generation.
+     */
+    public Flux<String> streamChatCompletion(Lane lane, List<Map<String, String>> messages) {
+        if (!isConfigured()) {
+            return Flux.error(new IllegalStateException("Azure OpenAI is not configured"));
+        }
+        return gateway.stream(lane, chatDeployment, chatCost(messages), () -> webClient.post()
+                .uri(chatUrl())
                 .header("api-key", apiKey)
                 .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(body)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(chatBody(messages, true))
                 .retrieve()
-                .bodyToMono(String.class)
-                .map(this::extractAssistantReply)
-                .block();
+                .bodyToFlux(SERVER_SENT_EVENTS)
+                .mapNotNull(ServerSentEvent::data)
+                .takeWhile(data -> !"[DONE]".equals(data.trim()))
+                .map(this::extractDelta)
+                .filter(delta -> !delta.isEmpty()));
+    }
+
+    /**
+     * Estimated tokens a chat completion consumes: the prompt plus the completion limit.
+     */
+    private long chatCost(List<Map<String, String>> messages) {
+        return messages.stream().mapToLong(m -> TokenCounter.countMessage(m.get("content"))).sum() + chatMaxTokens;
+    }
+
+    private String chatUrl() {
+        return String.format("%s/openai/deployments/%s/chat/completions?api-version=%s", endpoint, chatDeployment, apiVersion);
+    }
+
+    private Map<String, Object> chatBody(List<Map<String, String>> messages, boolean stream) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("messages", messages);
+        body.put("temperature", 0.1);
+        body.put("max_tokens", chatMaxTokens);
+        if (stream) {
+            body.put("stream", true);
+        }
+        return body;
+    }
+
+    /**
+     * Content of one streamed chunk; chunks without content (role announcements, filter results)
+     * yield an empty string.
+     */
+    private String extractDelta(String chunk) {
+        try {
+            return objectMapper.readTree(chunk).path("choices").path(0).path("delta").path("content").asText("");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse chat completion chunk", e);
+        }
     }
 
     private String extractAssistantReply(String responseBody) {
@@ -105,42 +230,151 @@ public class AzureOpenAiService {
 
     /**
      * Embed a list of input strings. Returns a list of float arrays corresponding to each input.
+     * Inputs are split into batches bounded by count and estimated tokens, which are sent
+     * concurrently up to the configured limit and reassembled in input order. Throttled (429) and
+     * server-side failures are retried, honouring Retry-After when the service sends it. Each attempt
+     * passes through the gateway in the given lane. Vectors are requested at the configured dimension
+     * and a response with any vector of another length fails, so a mismatched vector never reaches a
+     * {@code vector(n)} column.
      */
-    public List<float[]> embed(List<String> inputs) {
+    public List<float[]> embed(Lane lane, List<String> inputs) {
         if (!isConfigured()) {
             throw new IllegalStateException("Azure OpenAI is not configured");
         }
+        if (inputs.isEmpty()) {
+            return List.of();
+        }
+        List<List<String>> batches = batchInputs(inputs, embeddingBatchMaxInputs, embeddingBatchMaxTokens);
+        List<float[]> result = Flux.fromIterable(batches)
+                .flatMapSequential(batch -> embedBatch(lane, batch), embeddingConcurrency)
+                .flatMapIterable(batch -> batch)
+                .collectList()
+                .block();
+        return result != null ? result : List.of();
+    }
+
+    /**
+     * Split inputs into consecutive batches holding at most maxInputs inputs and roughly maxTokens
+     * estimated tokens. An input larger than maxTokens forms a batch on its own.
+     */
+    static List<List<String>> batchInputs(List<String> inputs, int maxInputs, int maxTokens) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int tokens = 0;
+        for (String input : inputs) {
+            int estimate = estimateTokens(input);
+            if (!current.isEmpty() && (current.size() >= maxInputs || tokens + estimate > maxTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(input);
+            tokens += estimate;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Rough token estimate for English text (about four characters per token), rounded up.
+     */
+    static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + 3) / 4;
+    }
+
+    private Mono<List<float[]>> embedBatch(Lane lane, List<String> batch) {
         String url = String.format("%s/openai/deployments/%s/embeddings?api-version=%s", endpoint, embeddingsDeployment, apiVersion);
         Map<String, Object> body = new HashMap<>();
-        body.put("input", inputs);
-        return webClient.post()
-                .uri(url)
-                .header("api-key", apiKey)
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(body)
-                .retrieve()
-                .bodyToMono(String.class)
+        body.put("input", batch);
+        if (sendDimensions) {
+            body.put("dimensions", embeddingDim);
+        }
+        long cost = batch.stream().mapToLong(AzureOpenAiService::estimateTokens).sum();
+        return gateway.call(lane, embeddingsDeployment, cost, () -> webClient.post()
+                        .uri(url)
+                        .header("api-key", apiKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(body)
+                        .exchangeToMono(response -> {
+                            HttpStatusCode status = response.statusCode();
+                            if (status.value() == 429 || status.is5xxServerError()) {
+                                Duration retryAfter = parseRetryAfter(response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+                                return response.releaseBody().then(Mono.error(new RetryableStatusException(
+                                        "Azure OpenAI embeddings returned HTTP " + status.value(), status.value(), retryAfter)));
+                            }
+                            if (status.isError()) {
+                                return response.createException().flatMap(Mono::error);
+                            }
+                            return response.bodyToMono(byte[].class);
+                        })
+                        .timeout(embeddingTimeout))
+                .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                    Throwable failure = signal.failure();
+                    boolean retryable = failure instanceof RetryableStatusException
+                            || failure instanceof TimeoutException
+                            || failure instanceof WebClientRequestException;
+                    if (!retryable || signal.totalRetries() >= embeddingMaxRetries) {
+                        return Mono.error(failure);
+                    }
+                    Duration retryAfter = failure instanceof RetryableStatusException rse ? rse.retryAfter() : null;
+                    return Mono.delay(backoff(signal.totalRetries(), retryAfter));
+                })))
                 .map(this::extractEmbeddings)
-                .block();
+                .flatMap(vectors -> {
+                    if (vectors.size() != batch.size()) {
+                        return Mono.error(new IllegalStateException("Expected " + batch.size() + " embeddings but received " + vectors.size()));
+                    }
+                    for (float[] vector : vectors) {
+                        if (vector.length != embeddingDim) {
+                            return Mono.error(new IllegalStateException("Expected " + embeddingDim
+                                    + "-dimensional embeddings from " + embeddingsDeployment + " but received " + vector.length));
+                        }
+                    }
+                    return Mono.just(vectors);
+                });
     }
 
-    private List<float[]> extractEmbeddings(String responseBody) {
+    /**
+     * Delay before the given retry. A Retry-After from the service is honoured with up to 20% added
+     * jitter so concurrent batches do not retry in lockstep; otherwise exponential backoff with full
+     * jitter is used.
+     */
+    private Duration backoff(long retry, Duration retryAfter) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (retryAfter != null) {
+            long millis = retryAfter.toMillis();
+            return Duration.ofMillis(millis + random.nextLong(millis / 5 + 1));
+        }
+        long cap = Math.min(embeddingBackoffMax.toMillis(), embeddingBackoffBase.toMillis() << Math.min(retry, 20));
+        return Duration.ofMillis(random.nextLong(cap + 1));
+    }
+
+    /**
+     * Parse a Retry-After header given either in seconds or as an HTTP date.
+     */
+    static Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
         try {
-            JsonNode json = objectMapper.readTree(responseBody);
-            JsonNode dataArray = json.path("data");
-            List<float[]> result = new ArrayList<>();
-            if (dataArray.isArray()) {
-                for (JsonNode item : dataArray) {
-                    JsonNode embeddingNode = item.path("embedding");
-                    float[] vec = new float[embeddingNode.size()];
-                    for (int i = 0; i < embeddingNode.size(); i++) {
-                        vec[i] = embeddingNode.get(i).floatValue();
-                    }
-                    result.add(vec);
-                }
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Instant at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Duration delay = Duration.between(Instant.now(), at);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
             }
-            return result;
-        } catch (Exception e) {
+        }
+    }
+
+    private List<float[]> extractEmbeddings(byte[] responseBody) {
+        try {
+            return embeddingParser.parse(responseBody, embeddingDim);
+        } catch (IOException e) {
             throw new RuntimeException("Failed to parse embeddings response", e);
         }
     }
@@ -6,26 +6,39 @@ import com.surgeops.dto.VesselDto;
 import com.surgeops.entity.Berth;
 import com.surgeops.entity.BerthAssignment;
 import com.surgeops.entity.Vessel;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.BerthAssignmentRepository;
 import com.surgeops.repo.BerthRepository;
+import com.surgeops.util.TransactionCallbacks;
+import jakarta.transaction.Transactional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
- * Service for retrieving berth status and associated assignments.
+ * Service for retrieving berth status and associated assignments. Assignment writes go through this
+ * service so the {@link BerthTimelineService} occupancy timeline stays in sync with the database.
  */
 @Service
 public class BerthService {
 
     private final BerthRepository berthRepository;
     private final BerthAssignmentRepository assignmentRepository;
+    private final BerthTimelineService timelineService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public BerthService(BerthRepository berthRepository, BerthAssignmentRepository assignmentRepository) {
+    public BerthService(BerthRepository berthRepository,
+                        BerthAssignmentRepository assignmentRepository,
+                        BerthTimelineService timelineService,
+                        ApplicationEventPublisher eventPublisher) {
         this.berthRepository = berthRepository;
         this.assignmentRepository = assignmentRepository;
+        this.timelineService = timelineService;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -39,6 +52,52 @@ public class BerthService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Create or update a berth assignment. The assignment is rejected if the window it occupies
+     * (open-ended if it has started without an end) overlaps another assignment on the same berth.
+     * The occupancy timeline catches most conflicts without a query; since it is only updated after
+     * commit, the berth row is then locked and the overlap re-checked against the database, so
+     * concurrent writes to one berth cannot both pass. The timeline is updated after commit.
+     *
+     * @param assignment assignment to persist; a missing ID is generated
+     * @return BerthAssignmentDto of the persisted assignment
+     */
+    @Transactional
+    public BerthAssignmentDto saveAssignment(BerthAssignment assignment) {
+        if (assignment.getAssignmentId() == null) {
+            assignment.setAssignmentId(UUID.randomUUID());
+        }
+        String berthCode = assignment.getBerth() != null ? assignment.getBerth().getCode() : null;
+        Berth berth = berthRepository.findByCodeForUpdate(berthCode)
+                .orElseThrow(() -> new IllegalArgumentException("Berth not found: " + berthCode));
+        assignment.setBerth(berth);
+        Instant[] window = BerthTimelineService.occupancyWindow(assignment);
+        if (window != null && (timelineService.hasConflict(berth.getCode(), assignment)
+                || assignmentRepository.existsOverlapping(berth.getCode(), assignment.getAssignmentId(),
+                        window[0], window[1], BerthTimelineService.OPEN_END))) {
+            throw new IllegalStateException("Berth " + berth.getCode() + " is already assigned between " + window[0]
+                    + (window[1].equals(BerthTimelineService.OPEN_END) ? " and departure" : " and " + window[1]));
+        }
+        BerthAssignment saved = assignmentRepository.save(assignment);
+        TransactionCallbacks.afterCommit(() -> timelineService.track(saved));
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.BERTH, berth.getCode()));
+        return toAssignmentDto(saved);
+    }
+
+    /**
+     * Delete a berth assignment and remove it from the occupancy timeline after commit.
+     */
+    @Transactional
+    public void deleteAssignment(UUID assignmentId) {
+        assignmentRepository.findById(assignmentId).ifPresent(assignment -> {
+            assignmentRepository.delete(assignment);
+            if (assignment.getBerth() != null) {
+                eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.BERTH, assignment.getBerth().getCode()));
+            }
+        });
+        TransactionCallbacks.afterCommit(() -> timelineService.untrack(assignmentId));
+    }
+
     private BerthDto toDto(Berth berth) {
         List<BerthAssignment> assignments = assignmentRepository.findByBerth_Code(berth.getCode());
         List<BerthAssignmentDto> assignmentDtos = assignments.stream().map(this::toAssignmentDto).collect(Collectors.toList());
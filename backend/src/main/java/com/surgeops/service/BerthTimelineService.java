@@ -0,0 +1,211 @@
+package com.surgeops.service;
+
+import com.surgeops.dto.BerthSlotDto;
+import com.surgeops.entity.Berth;
+import com.surgeops.entity.BerthAssignment;
+import com.surgeops.repo.BerthAssignmentRepository;
+import com.surgeops.repo.BerthRepository;
+import com.surgeops.util.IntervalTree;
+import jakarta.transaction.Transactional;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Service maintaining an in-memory occupancy timeline per berth. Each berth has an interval tree of
+ * its assignments so overlap checks, free-slot searches and utilisation queries run in logarithmic
+ * time instead of loading every assignment row. The timeline is seeded on startup and kept in sync
+ * by {@link BerthService} whenever assignments are written.
+ */
+@Service
+public class BerthTimelineService {
+
+    /** End used for vessels alongside with no planned or actual departure. */
+    static final Instant OPEN_END = Instant.parse("9999-12-31T00:00:00Z");
+
+    private final BerthRepository berthRepository;
+    private final BerthAssignmentRepository assignmentRepository;
+    private final Map<String, IntervalTree<UUID>> timelines = new ConcurrentHashMap<>();
+    private final Map<UUID, String> berthByAssignment = new ConcurrentHashMap<>();
+
+    public BerthTimelineService(BerthRepository berthRepository, BerthAssignmentRepository assignmentRepository) {
+        this.berthRepository = berthRepository;
+        this.assignmentRepository = assignmentRepository;
+    }
+
+    /**
+     * Build the timelines from the current berths and assignments once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void loadAll() {
+        for (Berth berth : berthRepository.findAll()) {
+            timeline(berth.getCode());
+        }
+        for (BerthAssignment assignment : assignmentRepository.findAllWithBerth()) {
+            track(assignment);
+        }
+    }
+
+    /**
+     * Insert or update an assignment on its berth's timeline. Assignments without a start are
+     * removed, as are assignments that moved to another berth.
+     */
+    public void track(BerthAssignment assignment) {
+        UUID id = assignment.getAssignmentId();
+        String berthCode = assignment.getBerth() != null ? assignment.getBerth().getCode() : null;
+        untrack(id);
+        long[] bounds = occupancy(assignment);
+        if (berthCode == null || bounds == null) {
+            return;
+        }
+        IntervalTree<UUID> tree = timeline(berthCode);
+        synchronized (tree) {
+            tree.put(id, bounds[0], bounds[1]);
+        }
+        berthByAssignment.put(id, berthCode);
+    }
+
+    /**
+     * Remove an assignment from whichever berth timeline holds it.
+     */
+    public void untrack(UUID assignmentId) {
+        String previous = berthByAssignment.remove(assignmentId);
+        if (previous != null) {
+            IntervalTree<UUID> tree = timeline(previous);
+            synchronized (tree) {
+                tree.remove(assignmentId);
+            }
+        }
+    }
+
+    /**
+     * Return the identifiers of assignments on the berth that overlap the proposed window.
+     *
+     * @param exclude assignment to ignore, e.g. the one being rescheduled (may be null)
+     */
+    public List<UUID> findConflicts(String berthCode, Instant start, Instant end, UUID exclude) {
+        IntervalTree<UUID> tree = timeline(berthCode);
+        synchronized (tree) {
+            return tree.overlapping(start.toEpochMilli(), end.toEpochMilli()).stream()
+                    .map(IntervalTree.Interval::key)
+                    .filter(id -> !id.equals(exclude))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Determine whether a proposed window on the berth overlaps any existing assignment.
+     */
+    public boolean hasConflict(String berthCode, Instant start, Instant end, UUID exclude) {
+        IntervalTree<UUID> tree = timeline(berthCode);
+        synchronized (tree) {
+            return tree.overlapsAny(start.toEpochMilli(), end.toEpochMilli(), exclude);
+        }
+    }
+
+    /**
+     * Determine whether the window the assignment would occupy, resolved as {@link #track} stores
+     * it (so an open-ended assignment runs to the far future), overlaps another assignment on the
+     * berth. Assignments that would not be tracked never conflict.
+     */
+    public boolean hasConflict(String berthCode, BerthAssignment assignment) {
+        long[] bounds = occupancy(assignment);
+        if (bounds == null) {
+            return false;
+        }
+        IntervalTree<UUID> tree = timeline(berthCode);
+        synchronized (tree) {
+            return tree.overlapsAny(bounds[0], bounds[1], assignment.getAssignmentId());
+        }
+    }
+
+    /**
+     * List the berths with no assignment overlapping the given window, ordered by code.
+     */
+    public List<String> findFreeBerths(Instant start, Instant end) {
+        return timelines.keySet().stream()
+                .sorted()
+                .filter(code -> !hasConflict(code, start, end, null))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * List the free windows on a berth between from and to that are at least minLength long.
+     */
+    public List<BerthSlotDto> findFreeSlots(String berthCode, Instant from, Instant to, Duration minLength) {
+        IntervalTree<UUID> tree = timeline(berthCode);
+        List<long[]> gaps;
+        synchronized (tree) {
+            gaps = tree.gaps(from.toEpochMilli(), to.toEpochMilli());
+        }
+        long min = minLength != null ? minLength.toMillis() : 0;
+        List<BerthSlotDto> slots = new ArrayList<>();
+        for (long[] gap : gaps) {
+            if (gap[1] - gap[0] >= min) {
+                slots.add(new BerthSlotDto(
+                        berthCode,
+                        BerthSlotDto.formatInstant(Instant.ofEpochMilli(gap[0])),
+                        BerthSlotDto.formatInstant(Instant.ofEpochMilli(gap[1]))));
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Compute the percentage of the window during which the berth is occupied.
+     *
+     * @return utilisation percentage (0–100)
+     */
+    public double utilisation(String berthCode, Instant from, Instant to) {
+        long start = from.toEpochMilli();
+        long end = to.toEpochMilli();
+        if (end <= start) {
+            return 0d;
+        }
+        IntervalTree<UUID> tree = timeline(berthCode);
+        long covered;
+        synchronized (tree) {
+            covered = tree.coveredLength(start, end);
+        }
+        return covered * 100.0 / (end - start);
+    }
+
+    private IntervalTree<UUID> timeline(String berthCode) {
+        return timelines.computeIfAbsent(berthCode, code -> new IntervalTree<>());
+    }
+
+    /**
+     * Resolve the window an assignment occupies as {start, end}, or null if it occupies none.
+     * Actual times take precedence over planned ones; a vessel that has started but has no end is
+     * treated as occupying the berth until {@link #OPEN_END}.
+     */
+    static Instant[] occupancyWindow(BerthAssignment assignment) {
+        Instant start = assignment.getActualStart() != null ? assignment.getActualStart() : assignment.getPlannedStart();
+        if (start == null) {
+            return null;
+        }
+        Instant end = assignment.getActualEnd() != null ? assignment.getActualEnd() : assignment.getPlannedEnd();
+        if (end == null) {
+            end = OPEN_END;
+        }
+        return end.isAfter(start) ? new Instant[]{start, end} : null;
+    }
+
+    private static long[] occupancy(BerthAssignment assignment) {
+        Instant[] window = occupancyWindow(assignment);
+        if (window == null || window[1].toEpochMilli() <= window[0].toEpochMilli()) {
+            return null;
+        }
+        return new long[]{window[0].toEpochMilli(), window[1].toEpochMilli()};
+    }
+}
@@ -0,0 +1,332 @@
+package com.surgeops.service;
+
+import com.surgeops.dto.ChatRequest;
+import com.surgeops.dto.ChatResponse;
+import com.surgeops.entity.KbChunk;
+import com.surgeops.service.ConversationMemoryService.History;
+import com.surgeops.service.DbGroundingService.Section;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service answering operator chat questions. In db-hybrid mode the DB grounding facts and the
+ * knowledge base retrieval run concurrently, each within its own latency budget; a stage that
+ * fails or runs out of time is dropped and the answer is grounded on whatever arrived (facts only
+ * or RAG only). The completion has a budget as well, and without a usable completion the current
+ * facts are returned as a deterministic answer.
+ *
+ * <p>Every stage is timed in {@code chat.stage} (tagged by stage and outcome) and whole requests
+ * in {@code chat.request}, tagged by whether the answer was cached and whether any stage
+ * degraded. Repeated questions are answered from {@link SemanticResponseCache}. Replies can also
+ * be streamed token by token, see {@link #stream}.
+ */
+@Service
+public class ChatService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatService.class);
+
+    static final String MODE_DB_HYBRID = "db-hybrid";
+    static final String MODE_DB = "db";
+    static final String MODE_RAG = "rag";
+
+    static final String SYSTEM_PROMPT = "You are the SurgeOps assistant for port operators. "
+            + "Answer concisely using only the operational facts and knowledge base excerpts provided. "
+            + "If they do not contain the answer, say so.";
+
+    /**
+     * Grounding gathered for one question. A stage that was skipped or failed contributes an empty
+     * value and marks the grounding as degraded.
+     */
+    public record Grounding(List<Section> facts, List<KbChunk> chunks, boolean degraded) {}
+
+    private final DbGroundingService dbGroundingService;
+    private final RagService ragService;
+    private final AzureOpenAiService azureOpenAiService;
+    private final SemanticResponseCache responseCache;
+    private final PromptAssembler promptAssembler;
+    private final ConversationMemoryService conversationMemory;
+    private final MeterRegistry meterRegistry;
+    private final String mode;
+    private final int ragTopK;
+    private final Duration factsBudget;
+    private final Duration ragBudget;
+    private final Duration completionBudget;
+    private final Duration firstTokenBudget;
+    private final Duration tokenIdleBudget;
+    private final Duration streamBudget;
+
+    public ChatService(DbGroundingService dbGroundingService,
+                       RagService ragService,
+                       AzureOpenAiService azureOpenAiService,
+                       SemanticResponseCache responseCache,
+                       PromptAssembler promptAssembler,
+                       ConversationMemoryService conversationMemory,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.chat.mode:db-hybrid}") String mode,
+                       @Value("${app.chat.rag.top-k:5}") int ragTopK,
+                       @Value("${app.chat.budget.facts-ms:1000}") long factsBudgetMs,
+                       @Value("${app.chat.budget.rag-ms:1500}") long ragBudgetMs,
+                       @Value("${app.chat.budget.completion-ms:20000}") long completionBudgetMs,
+                       @Value("${app.chat.budget.first-token-ms:10000}") long firstTokenBudgetMs,
+                       @Value("${app.chat.budget.token-idle-ms:5000}") long tokenIdleBudgetMs,
+                       @Value("${app.chat.budget.stream-ms:120000}") long streamBudgetMs) {
+        this.dbGroundingService = dbGroundingService;
+        this.ragService = ragService;
+        this.azureOpenAiService = azureOpenAiService;
+        this.responseCache = responseCache;
+        this.promptAssembler = promptAssembler;
+        this.conversationMemory = conversationMemory;
+        this.meterRegistry = meterRegistry;
+        this.mode = mode.toLowerCase(Locale.ROOT);
+        if (!MODE_DB_HYBRID.equals(this.mode) && !MODE_DB.equals(this.mode) && !MODE_RAG.equals(this.mode)) {
+            throw new IllegalArgumentException("Unsupported app.chat.mode: " + mode);
+        }
+        this.ragTopK = ragTopK;
+        this.factsBudget = Duration.ofMillis(factsBudgetMs);
+        this.ragBudget = Duration.ofMillis(ragBudgetMs);
+        this.completionBudget = Duration.ofMillis(completionBudgetMs);
+        this.firstTokenBudget = Duration.ofMillis(firstTokenBudgetMs);
+        this.tokenIdleBudget = Duration.ofMillis(tokenIdleBudgetMs);
+        this.streamBudget = Duration.ofMillis(streamBudgetMs);
+    }
+
+    /**
+     * Assign the request a conversation session if it has none, and return the session ID.
+     */
+    public String startSession(ChatRequest request) {
+        String sessionId = conversationMemory.resolveSessionId(request.getSessionId());
+        request.setSessionId(sessionId);
+        return sessionId;
+    }
+
+    /**
+     * Answer a chat request. Never fails: stage errors degrade the answer instead. A semantically
+     * equivalent question answered against the same state is served from the response cache;
+     * follow-ups within a session depend on their context and always go to the model.
+     */
+    public ChatResponse chat(ChatRequest request) {
+        long started = System.nanoTime();
+        String sessionId = startSession(request);
+        String question = request.getMessage();
+        History history = conversationMemory.history(sessionId);
+        SemanticResponseCache.Scope scope = responseCache.scope();
+        float[] embedding = questionEmbedding(question, history).block().orElse(null);
+        String answer = responseCache.get(embedding);
+        boolean cached = answer != null;
+        boolean degraded = false;
+        if (!cached) {
+            Grounding grounding = ground(question).block();
+            answer = complete(question, grounding, history);
+            degraded = grounding.degraded() || answer == null;
+            if (answer == null) {
+                answer = fallbackAnswer(grounding);
+            } else {
+                conversationMemory.append(sessionId, question, answer);
+                if (!degraded) {
+                    responseCache.put(embedding, answer, scope, System.nanoTime() - started);
+                }
+            }
+        } else {
+            conversationMemory.append(sessionId, question, answer);
+        }
+        Timer.builder("chat.request")
+                .tag("mode", mode)
+                .tag("cached", Boolean.toString(cached))
+                .tag("degraded", Boolean.toString(degraded))
+                .register(meterRegistry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return new ChatResponse(answer, sessionId);
+    }
+
+    /**
+     * Answer a chat request as a stream of reply fragments, relayed as the model generates them.
+     * Grounding, conversation memory and the response cache are used exactly as for {@link #chat};
+     * a cached answer is sent as a single fragment. If no token arrives within the first-token budget, or the model
+     * fails before producing one, the deterministic fallback answer is emitted instead. A failure
+     * mid-reply, including running out of the stream budget, ends the stream with an error after
+     * what was sent, so callers can tell a truncated reply from a complete one. Cancelling the
+     * subscription (e.g. the client disconnecting) cancels the upstream completion.
+     *
+     * <p>Time to first token, measured from the start of the request, is recorded in
+     * {@code chat.stream.first-token}, and whole streams in {@code chat.stream} tagged by outcome.
+     */
+    public Flux<String> stream(ChatRequest request) {
+        return Flux.defer(() -> {
+            long started = System.nanoTime();
+            String sessionId = startSession(request);
+            String question = request.getMessage();
+            History history = conversationMemory.history(sessionId);
+            SemanticResponseCache.Scope scope = responseCache.scope();
+            AtomicBoolean emitted = new AtomicBoolean();
+            return questionEmbedding(question, history)
+                    .flatMapMany(embedding -> {
+                        String cached = responseCache.get(embedding.orElse(null));
+                        if (cached != null) {
+                            conversationMemory.append(sessionId, question, cached);
+                            return Flux.just(cached);
+                        }
+                        return ground(question).flatMapMany(grounding -> {
+                            if (!azureOpenAiService.isConfigured()) {
+                                return Flux.just(fallbackAnswer(grounding));
+                            }
+                            StringBuilder reply = new StringBuilder();
+                            Mono<Long> deadline = Mono.delay(streamBudget).cache();
+                            return azureOpenAiService.streamChatCompletion(LlmGateway.Lane.CHAT, buildMessages(question, grounding, history))
+                                    .timeout(Mono.firstWithSignal(Mono.delay(firstTokenBudget), deadline),
+                                            token -> Mono.firstWithSignal(Mono.delay(tokenIdleBudget), deadline))
+                                    .doOnNext(reply::append)
+                                    .doOnComplete(() -> {
+                                        if (!reply.isEmpty()) {
+                                            conversationMemory.append(sessionId, question, reply.toString());
+                                        }
+                                        if (!grounding.degraded() && !reply.isEmpty()) {
+                                            responseCache.put(embedding.orElse(null), reply.toString(), scope,
+                                                    System.nanoTime() - started);
+                                        }
+                                    })
+                                    .onErrorResume(ex -> {
+                                        if (emitted.get()) {
+                                            log.warn("Chat stream failed after the first token", ex);
+                                            return Flux.error(ex);
+                                        }
+                                        log.warn("Chat stream failed before the first token; sending fallback answer", ex);
+                                        return Flux.just(fallbackAnswer(grounding));
+                                    });
+                        });
+                    })
+                    .doOnNext(token -> {
+                        if (emitted.compareAndSet(false, true)) {
+                            meterRegistry.timer("chat.stream.first-token", "mode", mode)
+                                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doFinally(signal -> Timer.builder("chat.stream")
+                            .tag("mode", mode)
+                            .tag("outcome", signal == SignalType.CANCEL ? "cancelled"
+                                    : signal == SignalType.ON_ERROR ? "error" : "complete")
+                            .register(meterRegistry)
+                            .record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * Embedding of the question for the response cache, empty if the cache is disabled, the LLM is
+     * not configured, the question is a follow-up in a session or the embedding did not arrive within
+     * the retrieval budget. Retrieval reuses the same cached query embedding, so this adds no second
+     * embeddings call.
+     */
+    private Mono<Optional<float[]>> questionEmbedding(String question, History history) {
+        if (!responseCache.isEnabled() || !azureOpenAiService.isConfigured() || !history.isEmpty()) {
+            return Mono.just(Optional.empty());
+        }
+        return stage("embed", () -> ragService.queryEmbedding(question), ragBudget)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    /**
+     * Gather DB facts and knowledge base chunks for a question concurrently, each bounded by its
+     * budget. Stages not used by the configured mode are skipped.
+     */
+    public Mono<Grounding> ground(String question) {
+        boolean useFacts = !MODE_RAG.equals(mode);
+        boolean useRag = !MODE_DB.equals(mode);
+        Mono<Optional<List<Section>>> facts = useFacts
+                ? stage("facts", dbGroundingService::buildSections, factsBudget).map(Optional::of).defaultIfEmpty(Optional.empty())
+                : Mono.just(Optional.of(List.of()));
+        Mono<Optional<List<KbChunk>>> chunks = useRag
+                ? stage("rag", () -> ragService.retrieve(question, ragTopK, null), ragBudget).map(Optional::of).defaultIfEmpty(Optional.empty())
+                : Mono.just(Optional.of(List.of()));
+        return Mono.zip(facts, chunks)
+                .map(t -> new Grounding(t.getT1().orElse(List.of()), t.getT2().orElse(List.of()),
+                        t.getT1().isEmpty() || t.getT2().isEmpty()));
+    }
+
+    /**
+     * Build the chat messages for a question, its grounding and the conversation so far within the
+     * prompt token budget.
+     */
+    public List<Map<String, String>> buildMessages(String question, Grounding grounding, History history) {
+        return promptAssembler.assemble(SYSTEM_PROMPT, question, grounding.facts(), grounding.chunks(), history)
+                .messages();
+    }
+
+    /**
+     * Deterministic answer used when no completion is available: the current facts as they are.
+     */
+    public String fallbackAnswer(Grounding grounding) {
+        if (!grounding.facts().isEmpty()) {
+            StringBuilder sb = new StringBuilder("The assistant is unavailable right now. Current operational facts:\n");
+            grounding.facts().forEach(section -> sb.append(section.text()));
+            return sb.toString();
+        }
+        if (!grounding.chunks().isEmpty()) {
+            StringBuilder sb = new StringBuilder("The assistant is unavailable right now. Related records:\n");
+            grounding.chunks().forEach(chunk -> sb.append("- ").append(chunk.getTitle()).append('\n'));
+            return sb.toString();
+        }
+        return "The assistant is unavailable right now and no operational data could be loaded. Please try again shortly.";
+    }
+
+    /**
+     * Run the completion within its budget, returning null if it is not configured, fails or times out.
+     */
+    private String complete(String question, Grounding grounding, History history) {
+        if (!azureOpenAiService.isConfigured()) {
+            return null;
+        }
+        List<Map<String, String>> messages = buildMessages(question, grounding, history);
+        String reply = stage("completion", () -> azureOpenAiService.chatCompletion(LlmGateway.Lane.CHAT, messages), completionBudget).block();
+        return reply == null || reply.isBlank() ? null : reply;
+    }
+
+    /**
+     * Run blocking work on the bounded elastic scheduler within a budget, recording its duration and
+     * outcome. Failures and timeouts complete empty so callers can degrade.
+     */
+    private <T> Mono<T> stage(String name, Callable<T> work, Duration budget) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return Mono.fromCallable(work)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .timeout(budget)
+                    .doOnNext(value -> recordStage(name, "ok", started))
+                    .onErrorResume(ex -> {
+                        boolean timeout = ex instanceof TimeoutException;
+                        recordStage(name, timeout ? "timeout" : "error", started);
+                        if (timeout) {
+                            log.warn("Chat stage {} exceeded its {} ms budget", name, budget.toMillis());
+                        } else {
+                            log.warn("Chat stage {} failed", name, ex);
+                        }
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private void recordStage(String name, String outcome, long started) {
+        Timer.builder("chat.stage")
+                .tag("stage", name)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,273 @@
+package com.surgeops.service;
+
+import com.surgeops.util.TokenCounter;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Service holding per-session chat history in memory so follow-up questions keep their context.
+ * The store is bounded by session count (least recently used sessions are dropped first) and
+ * sessions idle for longer than the configured time are evicted by a periodic sweep.
+ *
+ * <p>Once a session's turns exceed the token threshold, all but the most recent turns are folded
+ * into a rolling summary on a background thread, so the history sent with each question stays
+ * roughly constant in size however long the session runs. The summary is written by the LLM when
+ * it is configured; otherwise, or if that fails, older turns are condensed deterministically.
+ */
+@Service
+public class ConversationMemoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationMemoryService.class);
+
+    static final String SUMMARY_PROMPT = "You maintain the running summary of a port operations chat. "
+            + "Merge the previous summary and the new exchanges into one concise summary that keeps the "
+            + "vessels, blocks, berths, numbers and decisions discussed. Reply with the summary only.";
+
+    /**
+     * One question and its answer.
+     */
+    public record Turn(String question, String answer) {}
+
+    /**
+     * Context of a session: the rolling summary of compacted turns (empty if none) and the recent
+     * turns, oldest first.
+     */
+    public record History(String summary, List<Turn> turns) {
+        public static final History EMPTY = new History("", List.of());
+
+        public boolean isEmpty() {
+            return summary.isEmpty() && turns.isEmpty();
+        }
+    }
+
+    private static class Session {
+        String summary = "";
+        final List<Turn> turns = new ArrayList<>();
+        int turnTokens;
+        boolean compacting;
+        volatile long lastAccessNanos = System.nanoTime();
+    }
+
+    private final AzureOpenAiService azureOpenAiService;
+    private final boolean enabled;
+    private final int compactThresholdTokens;
+    private final int keepTurns;
+    private final int summaryMaxTokens;
+    private final long idleNanos;
+    private final Map<String, Session> sessions;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-memory-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ConversationMemoryService(AzureOpenAiService azureOpenAiService,
+                                     @Value("${app.chat.memory.enabled:true}") boolean enabled,
+                                     @Value("${app.chat.memory.max-sessions:1000}") int maxSessions,
+                                     @Value("${app.chat.memory.idle-minutes:30}") long idleMinutes,
+                                     @Value("${app.chat.memory.compact-threshold-tokens:1200}") int compactThresholdTokens,
+                                     @Value("${app.chat.memory.keep-turns:2}") int keepTurns,
+                                     @Value("${app.chat.memory.summary-max-tokens:300}") int summaryMaxTokens) {
+        this.azureOpenAiService = azureOpenAiService;
+        this.enabled = enabled;
+        this.compactThresholdTokens = compactThresholdTokens;
+        this.keepTurns = Math.max(0, keepTurns);
+        this.summaryMaxTokens = summaryMaxTokens;
+        this.idleNanos = Duration.ofMinutes(idleMinutes).toNanos();
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    /**
+     * Return the session ID to use for a request: the requested one, or a new one if none was given.
+     */
+    public String resolveSessionId(String requested) {
+        return requested != null && !requested.isBlank() ? requested : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Context of a session; empty for unknown, evicted or idle sessions.
+     */
+    public History history(String sessionId) {
+        if (!enabled || sessionId == null) {
+            return History.EMPTY;
+        }
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(sessionId);
+            if (session == null) {
+                return History.EMPTY;
+            }
+            if (System.nanoTime() - session.lastAccessNanos > idleNanos) {
+                sessions.remove(sessionId);
+                return History.EMPTY;
+            }
+        }
+        synchronized (session) {
+            session.lastAccessNanos = System.nanoTime();
+            return new History(session.summary, List.copyOf(session.turns));
+        }
+    }
+
+    /**
+     * Record a completed turn, compacting older turns in the background once over the threshold.
+     */
+    public void append(String sessionId, String question, String answer) {
+        if (!enabled || sessionId == null) {
+            return;
+        }
+        Session session;
+        synchronized (sessions) {
+            session = sessions.computeIfAbsent(sessionId, id -> new Session());
+        }
+        boolean compact;
+        synchronized (session) {
+            Turn turn = new Turn(question, answer);
+            session.turns.add(turn);
+            session.turnTokens += tokens(turn);
+            session.lastAccessNanos = System.nanoTime();
+            compact = session.turnTokens > compactThresholdTokens && session.turns.size() > keepTurns
+                    && !session.compacting;
+            if (compact) {
+                session.compacting = true;
+            }
+        }
+        if (compact) {
+            compactor.submit(() -> compact(sessionId, session));
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * Evict sessions idle for longer than the configured time.
+     */
+    @Scheduled(fixedDelayString = "${app.chat.memory.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        synchronized (sessions) {
+            Iterator<Session> it = sessions.values().iterator();
+            while (it.hasNext()) {
+                Session session = it.next();
+                if (now - session.lastAccessNanos > idleNanos) {
+                    it.remove();
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} idle chat sessions", evicted);
+        }
+    }
+
+    /**
+     * Fold all but the most recent turns into the summary. Turns appended while the summary is
+     * being written are kept, since only the turns that were summarised are removed.
+     */
+    private void compact(String sessionId, Session session) {
+        String previous;
+        List<Turn> older;
+        synchronized (session) {
+            previous = session.summary;
+            older = List.copyOf(session.turns.subList(0, session.turns.size() - keepTurns));
+        }
+        String summary;
+        try {
+            summary = summarise(previous, older);
+        } catch (Exception ex) {
+            log.warn("Summarising chat session {} failed; condensing turns instead", sessionId, ex);
+            summary = condense(previous, older);
+        }
+        synchronized (session) {
+            session.summary = summary;
+            session.turns.subList(0, older.size()).clear();
+            session.turnTokens = session.turns.stream().mapToInt(ConversationMemoryService::tokens).sum();
+            session.compacting = false;
+        }
+    }
+
+    private String summarise(String previous, List<Turn> older) {
+        if (!azureOpenAiService.isConfigured()) {
+            return condense(previous, older);
+        }
+        StringBuilder user = new StringBuilder();
+        if (!previous.isEmpty()) {
+            user.append("Previous summary:\n").append(previous).append("\n\n");
+        }
+        user.append("New exchanges:\n");
+        older.forEach(turn -> user.append("Operator: ").append(turn.question()).append('\n')
+                .append("Assistant: ").append(turn.answer()).append('\n'));
+        user.append("\nKeep the summary under ").append(summaryMaxTokens * 3 / 4).append(" words.");
+        String reply = azureOpenAiService.chatCompletion(LlmGateway.Lane.SUMMARY, List.of(
+                Map.of("role", "system", "content", SUMMARY_PROMPT),
+                Map.of("role", "user", "content", user.toString())));
+        if (reply == null || reply.isBlank()) {
+            return condense(previous, older);
+        }
+        return truncate(reply.trim(), summaryMaxTokens);
+    }
+
+    /**
+     * Deterministic summary: the previous summary followed by each older question and the first
+     * sentence of its answer, trimmed from the front to the summary budget.
+     */
+    private String condense(String previous, List<Turn> older) {
+        StringBuilder sb = new StringBuilder(previous);
+        for (Turn turn : older) {
+            if (!sb.isEmpty()) {
+                sb.append('\n');
+            }
+            String answer = turn.answer();
+            int end = answer.indexOf(". ");
+            sb.append("Q: ").append(turn.question()).append(" A: ").append(end > 0 ? answer.substring(0, end + 1) : answer);
+        }
+        String text = sb.toString();
+        while (TokenCounter.count(text) > summaryMaxTokens) {
+            int cut = text.indexOf('\n');
+            if (cut < 0) {
+                return truncate(text, summaryMaxTokens);
+            }
+            text = text.substring(cut + 1);
+        }
+        return text;
+    }
+
+    private static String truncate(String text, int maxTokens) {
+        if (TokenCounter.count(text) <= maxTokens) {
+            return text;
+        }
+        // Roughly four characters per token; trim further until the count fits
+        int end = Math.min(text.length(), maxTokens * 4);
+        while (end > 0 && TokenCounter.count(text.substring(0, end)) > maxTokens) {
+            end -= Math.max(1, end / 10);
+        }
+        return text.substring(0, Math.max(0, end));
+    }
+
+    private static int tokens(Turn turn) {
+        return TokenCounter.countMessage(turn.question()) + TokenCounter.countMessage(turn.answer());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compactor.shutdownNow();
+    }
+}
@@ -1,40 +1,111 @@
 package com.surgeops.service;
 
 import com.surgeops.entity.*;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Service that collects factual information from the database to ground LLM responses. It returns
  * a human readable text summary covering alerts, vessels, yard blocks, weather, berths and TEU processed.
+ *
+ * <p>The summary is made of sections, each read with a targeted top-N query and cached as a
+ * rendered text fragment. A fragment is stamped with the version of its entity kind from
+ * {@link GroundingStateService} and re-rendered only once a write to that kind has committed, or
+ * its TTL has passed (sections that depend on the clock, such as upcoming arrivals and TEU over the
+ * last 24 hours, expire on their own). A chat turn after a single yard move therefore only
+ * re-reads the yard sections.
  */
 @Service
 public class DbGroundingService {
+
+    public static final String ALERTS = "alerts";
+    public static final String VESSELS = "vessels";
+    public static final String YARD_BLOCKS = "yard_blocks";
+    public static final String WEATHER = "weather";
+    public static final String BERTHS = "berths";
+    public static final String THROUGHPUT = "throughput";
+
+    /**
+     * Rendered section of the grounding facts.
+     */
+    public record Section(String name, String text) {}
+
+    /**
+     * Section definition: the entity kind whose writes invalidate it, a TTL and a renderer.
+     */
+    private record SectionSpec(String name, String kind, Duration ttl, Supplier<Rendered> renderer) {}
+
+    /**
+     * Rendered text, optionally valid only until a point in time (e.g. the next vessel's ETA).
+     */
+    private record Rendered(String text, Instant validUntil) {}
+
+    private record Fragment(long version, String text, long expiresAtNanos) {}
+
     private final AlertRepository alertRepository;
     private final VesselRepository vesselRepository;
     private final YardBlockRepository yardBlockRepository;
     private final WeatherObservationRepository weatherObservationRepository;
     private final BerthRepository berthRepository;
     private final ContainerMoveRepository containerMoveRepository;
+    private final GroundingStateService groundingStateService;
+    private final int recentAlerts;
+    private final int upcomingVessels;
+    private final int topBlocks;
+    private final List<SectionSpec> sections;
+    private final Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+    private final Counter sectionHits;
+    private final Counter sectionRenders;
 
     public DbGroundingService(AlertRepository alertRepository,
                               VesselRepository vesselRepository,
                               YardBlockRepository yardBlockRepository,
                               WeatherObservationRepository weatherObservationRepository,
                               BerthRepository berthRepository,
-                              ContainerMoveRepository containerMoveRepository) {
+                              ContainerMoveRepository containerMoveRepository,
+                              GroundingStateService groundingStateService,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.grounding.recent-alerts:3}") int recentAlerts,
+                              @Value("${app.grounding.upcoming-vessels:5}") int upcomingVessels,
+                              @Value("${app.grounding.top-blocks:3}") int topBlocks,
+                              @Value("${app.grounding.section-ttl-seconds:300}") long sectionTtlSeconds,
+                              @Value("${app.grounding.throughput-ttl-seconds:60}") long throughputTtlSeconds) {
         this.alertRepository = alertRepository;
         this.vesselRepository = vesselRepository;
         this.yardBlockRepository = yardBlockRepository;
         this.weatherObservationRepository = weatherObservationRepository;
         this.berthRepository = berthRepository;
         this.containerMoveRepository = containerMoveRepository;
+        this.groundingStateService = groundingStateService;
+        this.recentAlerts = recentAlerts;
+        this.upcomingVessels = upcomingVessels;
+        this.topBlocks = topBlocks;
+        Duration ttl = Duration.ofSeconds(sectionTtlSeconds);
+        this.sections = List.of(
+                new SectionSpec(ALERTS, EntityChangedEvent.ALERT, ttl, this::renderAlerts),
+                new SectionSpec(VESSELS, EntityChangedEvent.VESSEL, ttl, this::renderVessels),
+                new SectionSpec(YARD_BLOCKS, EntityChangedEvent.YARD_BLOCK, ttl, this::renderYardBlocks),
+                new SectionSpec(WEATHER, EntityChangedEvent.WEATHER, ttl, this::renderWeather),
+                new SectionSpec(BERTHS, EntityChangedEvent.BERTH, ttl, this::renderBerths),
+                // Container moves are recorded together with the yard block updates
+                new SectionSpec(THROUGHPUT, EntityChangedEvent.YARD_BLOCK, Duration.ofSeconds(throughputTtlSeconds),
+                        this::renderThroughput));
+        this.sectionHits = meterRegistry.counter("grounding.section", "result", "hit");
+        this.sectionRenders = meterRegistry.counter("grounding.section", "result", "render");
     }
 
     /**
@@ -42,73 +113,131 @@ public class DbGroundingService {
      */
     public String buildFacts() {
         StringBuilder sb = new StringBuilder();
-        // Alerts
-        List<Alert> alerts = alertRepository.findAllByOrderByCreatedAtDesc();
-        long active = alerts.stream().filter(a -> !Boolean.TRUE.equals(a.getAcknowledged())).count();
-        sb.append(String.format("Active alerts: %d\n", active));
-        if (!alerts.isEmpty()) {
-            sb.append("Recent alerts:\n");
-            alerts.stream().limit(3).forEach(alert -> sb.append("- ")
-                    .append(alert.getSeverity()).append(": ")
-                    .append(alert.getMessage()).append("\n"));
+        for (Section section : buildSections()) {
+            sb.append(section.text());
         }
-        // Vessels
-        List<Vessel> vessels = vesselRepository.findAll();
-        List<Vessel> upcoming = vessels.stream()
-                .filter(v -> v.getEta() != null && v.getEta().isAfter(Instant.now()))
-                .sorted(Comparator.comparing(Vessel::getEta))
-                .limit(5)
-                .collect(Collectors.toList());
-        if (!upcoming.isEmpty()) {
-            sb.append("Upcoming/Waiting vessels:\n");
-            for (Vessel v : upcoming) {
-                sb.append(String.format("- %s (IMO %s) ETA %s carrying %d TEU status %s\n",
-                        v.getName(),
-                        v.getImo(),
-                        v.getEta() != null ? v.getEta().toString() : "unknown",
-                        v.getExpectedTeu() != null ? v.getExpectedTeu() : 0,
-                        v.getStatus() != null ? v.getStatus().name() : "unknown"));
+        return sb.toString();
+    }
+
+    /**
+     * Return the non-empty sections of the factual summary in display order, re-rendering only
+     * those whose data changed or whose TTL passed.
+     */
+    public List<Section> buildSections() {
+        List<Section> result = new ArrayList<>(sections.size());
+        for (SectionSpec spec : sections) {
+            String text = fragment(spec);
+            if (!text.isEmpty()) {
+                result.add(new Section(spec.name(), text));
             }
         }
-        // Yard blocks utilisation
-        List<YardBlock> blocks = yardBlockRepository.findAll();
-        List<YardBlock> topBlocks = blocks.stream()
-                .sorted(Comparator.comparingDouble(YardBlock::getUtilization).reversed())
-                .limit(3)
-                .collect(Collectors.toList());
-        sb.append("Top yard blocks by utilisation:\n");
-        for (YardBlock b : topBlocks) {
-            sb.append(String.format("- %s: %.1f%% (%s)\n", b.getCode(), b.getUtilization(), b.getStatus()))
-            ;
+        return result;
+    }
+
+    private String fragment(SectionSpec spec) {
+        // Read the version before the data so a write racing the render leaves the fragment stale
+        long version = groundingStateService.version(spec.kind());
+        long now = System.nanoTime();
+        Fragment cached = fragments.get(spec.name());
+        if (cached != null && cached.version() == version && now - cached.expiresAtNanos() < 0) {
+            sectionHits.increment();
+            return cached.text();
         }
-        // Latest weather
-        List<WeatherObservation> weather = weatherObservationRepository.findAll();
-        if (!weather.isEmpty()) {
-            WeatherObservation latest = weather.stream()
-                    .max(Comparator.comparing(WeatherObservation::getObservedAt))
-                    .orElse(weather.get(0));
-            sb.append(String.format("Latest weather (%s): %s, %.1f°C, wind %.1fm/s, humidity %.1f%% (impact %s)\n",
-                    latest.getLocation(),
-                    latest.getCondition(),
-                    latest.getTemperature(),
-                    latest.getWindSpeed(),
-                    latest.getHumidity(),
-                    latest.getOperationalImpact()));
+        sectionRenders.increment();
+        Rendered rendered = spec.renderer().get();
+        long ttlNanos = spec.ttl().toNanos();
+        if (rendered.validUntil() != null) {
+            ttlNanos = Math.min(ttlNanos, Math.max(0, Duration.between(Instant.now(), rendered.validUntil()).toNanos()));
         }
-        // Berths status
-        List<Berth> berths = berthRepository.findAll();
-        if (!berths.isEmpty()) {
-            sb.append("Berth status:\n");
-            for (Berth b : berths) {
-                sb.append(String.format("- %s: %s\n", b.getCode(), b.getStatus()));
+        fragments.put(spec.name(), new Fragment(version, rendered.text(), now + ttlNanos));
+        return rendered.text();
+    }
+
+    private Rendered renderAlerts() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Active alerts: ").append(alertRepository.countByAcknowledgedFalse()).append('\n');
+        List<Alert> alerts = alertRepository.findByOrderByCreatedAtDesc(Limit.of(recentAlerts));
+        if (!alerts.isEmpty()) {
+            sb.append("Recent alerts:\n");
+            for (Alert alert : alerts) {
+                sb.append("- ").append(alert.getSeverity()).append(": ").append(alert.getMessage()).append('\n');
             }
         }
-        // TEU processed last 24h
-        Instant since = Instant.now().minus(24, ChronoUnit.HOURS);
-        int teu = containerMoveRepository.findByTsAfter(since).stream()
-                .mapToInt(m -> m.getTeu() != null ? m.getTeu() : 0)
-                .sum();
-        sb.append(String.format("TEU processed in last 24h: %d\n", teu));
-        return sb.toString();
+        return new Rendered(sb.toString(), null);
+    }
+
+    private Rendered renderVessels() {
+        List<Vessel> upcoming = vesselRepository.findByEtaAfterOrderByEtaAsc(Instant.now(), Limit.of(upcomingVessels));
+        if (upcoming.isEmpty()) {
+            return new Rendered("", null);
+        }
+        StringBuilder sb = new StringBuilder("Upcoming/Waiting vessels:\n");
+        for (Vessel v : upcoming) {
+            sb.append("- ").append(v.getName())
+                    .append(" (IMO ").append(v.getImo()).append(')')
+                    .append(" ETA ").append(v.getEta())
+                    .append(" carrying ").append(v.getExpectedTeu() != null ? v.getExpectedTeu() : 0).append(" TEU")
+                    .append(" status ").append(v.getStatus() != null ? v.getStatus().name() : "unknown")
+                    .append('\n');
+        }
+        // The list changes as soon as the first vessel's ETA passes
+        return new Rendered(sb.toString(), upcoming.get(0).getEta());
+    }
+
+    private Rendered renderYardBlocks() {
+        StringBuilder sb = new StringBuilder("Top yard blocks by utilisation:\n");
+        for (YardBlock b : yardBlockRepository.findMostUtilized(topBlocks)) {
+            sb.append("- ").append(b.getCode()).append(": ");
+            appendOneDecimal(sb, b.getUtilization());
+            sb.append("% (").append(b.getStatus()).append(")\n");
+        }
+        return new Rendered(sb.toString(), null);
+    }
+
+    private Rendered renderWeather() {
+        StringBuilder sb = new StringBuilder();
+        for (WeatherObservation latest : weatherObservationRepository.findLatestPerLocation()) {
+            sb.append("Latest weather (").append(latest.getLocation()).append("): ")
+                    .append(latest.getCondition()).append(", ");
+            appendOneDecimal(sb, latest.getTemperature());
+            sb.append("°C, wind ");
+            appendOneDecimal(sb, latest.getWindSpeed());
+            sb.append("m/s, humidity ");
+            appendOneDecimal(sb, latest.getHumidity());
+            sb.append("% (impact ").append(latest.getOperationalImpact()).append(")\n");
+        }
+        return new Rendered(sb.toString(), null);
+    }
+
+    private Rendered renderBerths() {
+        List<Berth> berths = berthRepository.findAllByOrderByCodeAsc();
+        if (berths.isEmpty()) {
+            return new Rendered("", null);
+        }
+        StringBuilder sb = new StringBuilder("Berth status:\n");
+        for (Berth b : berths) {
+            sb.append("- ").append(b.getCode()).append(": ").append(b.getStatus()).append('\n');
+        }
+        return new Rendered(sb.toString(), null);
+    }
+
+    private Rendered renderThroughput() {
+        long teu = containerMoveRepository.sumTeuAfter(Instant.now().minus(24, ChronoUnit.HOURS));
+        return new Rendered("TEU processed in last 24h: " + teu + "\n", null);
+    }
+
+    /**
+     * Append a value rounded to one decimal place (locale independent), or "unknown" if null.
+     */
+    private static void appendOneDecimal(StringBuilder sb, Double value) {
+        if (value == null || value.isNaN() || value.isInfinite()) {
+            sb.append("unknown");
+            return;
+        }
+        long tenths = Math.round(Math.abs(value) * 10);
+        if (value < 0 && tenths != 0) {
+            sb.append('-');
+        }
+        sb.append(tenths / 10).append('.').append(tenths % 10);
     }
-}
\ No newline at end of file
+}
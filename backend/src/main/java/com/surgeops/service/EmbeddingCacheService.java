@@ -0,0 +1,142 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.EmbeddingCacheEntry;
+import com.surgeops.repo.EmbeddingCacheRepository;
+import com.surgeops.util.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Service that embeds text through Azure OpenAI while avoiding repeat work. Embeddings are cached
+ * by SHA-256 content hash, embeddings deployment and dimension, first in an in-memory LRU and then in the
+ * persistent embedding_cache table; only content not found in either is sent to the API.
+ */
+@Service
+public class EmbeddingCacheService {
+
+    /**
+     * Result of a cached embedding run. Embeddings are in input order.
+     *
+     * @param memoryHits inputs served from the in-memory LRU
+     * @param dbHits     inputs served from the embedding_cache table
+     * @param embedded   distinct inputs sent to the embeddings API
+     */
+    public record Result(List<float[]> embeddings, int memoryHits, int dbHits, int embedded) {
+        public int requested() {
+            return embeddings.size();
+        }
+
+        public int callsSaved() {
+            return requested() - embedded;
+        }
+
+        public double hitRate() {
+            return requested() == 0 ? 0d : (memoryHits + dbHits) / (double) requested();
+        }
+    }
+
+    private final EmbeddingCacheRepository embeddingCacheRepository;
+    private final AzureOpenAiService azureOpenAiService;
+    private final LruCache<String, float[]> memory;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public EmbeddingCacheService(EmbeddingCacheRepository embeddingCacheRepository,
+                                 AzureOpenAiService azureOpenAiService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.kb.embedding-cache.max-entries:10000}") int maxEntries) {
+        this.embeddingCacheRepository = embeddingCacheRepository;
+        this.azureOpenAiService = azureOpenAiService;
+        this.memory = new LruCache<>(maxEntries);
+        this.hitCounter = meterRegistry.counter("kb.embedding.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("kb.embedding.cache", "result", "miss");
+    }
+
+    /**
+     * Compute the SHA-256 hex digest used as the cache key for a piece of content.
+     */
+    public static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Embed the given contents, reusing cached vectors wherever the same text was embedded before
+     * with the current deployment and dimension. Requires Azure OpenAI to be configured.
+     */
+    public Result embedAll(List<String> contents) {
+        String deployment = azureOpenAiService.getEmbeddingsDeployment();
+        int dim = azureOpenAiService.getEmbeddingDim();
+        String prefix = deployment + ':' + dim + ':';
+        List<String> hashes = contents.stream().map(EmbeddingCacheService::hash).toList();
+        Map<String, float[]> resolved = new HashMap<>();
+        Set<String> fromMemory = new HashSet<>();
+        for (String h : hashes) {
+            float[] vec = memory.get(prefix + h);
+            if (vec != null) {
+                resolved.put(h, vec);
+                fromMemory.add(h);
+            }
+        }
+
+        Set<String> missing = new LinkedHashSet<>();
+        for (String h : hashes) {
+            if (!resolved.containsKey(h)) missing.add(h);
+        }
+        Set<String> fromDb = new HashSet<>();
+        if (!missing.isEmpty()) {
+            for (EmbeddingCacheEntry entry : embeddingCacheRepository.findByDeploymentAndDimensionsAndContentHashIn(deployment, dim, missing)) {
+                float[] vec = entry.getEmbedding();
+                resolved.put(entry.getContentHash(), vec);
+                memory.put(prefix + entry.getContentHash(), vec);
+                fromDb.add(entry.getContentHash());
+            }
+            missing.removeAll(fromDb);
+        }
+        int memoryHits = 0;
+        int dbHits = 0;
+        for (String h : hashes) {
+            if (fromMemory.contains(h)) memoryHits++;
+            else if (fromDb.contains(h)) dbHits++;
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, String> textByHash = new LinkedHashMap<>();
+            for (int i = 0; i < contents.size(); i++) {
+                if (missing.contains(hashes.get(i))) textByHash.putIfAbsent(hashes.get(i), contents.get(i));
+            }
+            List<String> pendingHashes = new ArrayList<>(textByHash.keySet());
+            List<float[]> fresh = azureOpenAiService.embed(LlmGateway.Lane.INGEST, new ArrayList<>(textByHash.values()));
+            List<EmbeddingCacheEntry> toStore = new ArrayList<>();
+            Instant now = Instant.now();
+            for (int i = 0; i < pendingHashes.size() && i < fresh.size(); i++) {
+                String h = pendingHashes.get(i);
+                resolved.put(h, fresh.get(i));
+                memory.put(prefix + h, fresh.get(i));
+                toStore.add(new EmbeddingCacheEntry(h, deployment, dim, fresh.get(i), now));
+            }
+            embeddingCacheRepository.insertAll(toStore);
+        }
+
+        List<float[]> embeddings = new ArrayList<>(contents.size());
+        for (String h : hashes) {
+            embeddings.add(resolved.get(h));
+        }
+        int hits = memoryHits + dbHits;
+        hitCounter.increment(hits);
+        missCounter.increment(contents.size() - hits);
+        return new Result(embeddings, memoryHits, dbHits, missing.size());
+    }
+}
@@ -1,20 +1,38 @@
 package com.surgeops.service;
 
 import com.surgeops.entity.*;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.*;
-import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * Service that rebuilds the knowledge base by extracting facts from the database, embedding them
  * and upserting them into the kb_chunks table. This is used for retrieval augmented generation.
+ * Chunks are upserted on (kind, source_key, title) and each records a hash of its content, so
+ * unchanged text is neither rewritten nor re-embedded. Rebuilds that must replace every embedding
+ * go through {@link KbShadowRebuildService} instead.
+ *
+ * <p>Syncs run in three steps: the changes are worked out in a read-only transaction, the changed
+ * chunks are embedded with no transaction open, and the writes are applied in a short transaction
+ * of their own, so a slow embeddings call never holds a connection or row locks. Writes are
+ * upserts and deletes on the natural key rather than merges of the rows read while planning, and
+ * syncs are serialized by a lock, so a full rebuild and an incremental refresh running at the same
+ * time can neither collide on a new key nor write back content older than the other's.
  */
 @Service
 public class FactIngestService {
+    private static final Logger log = LoggerFactory.getLogger(FactIngestService.class);
+
     private final VesselRepository vesselRepository;
     private final YardBlockRepository yardBlockRepository;
     private final BerthRepository berthRepository;
@@ -22,7 +40,20 @@ public class FactIngestService {
     private final WeatherObservationRepository weatherObservationRepository;
     private final KbChunkRepository kbChunkRepository;
     private final AzureOpenAiService azureOpenAiService;
+    private final EmbeddingCacheService embeddingCacheService;
     private final DashboardService dashboardService;
+    private final KbGenerationService kbGenerationService;
+    private final TransactionTemplate readTransaction;
+    private final TransactionTemplate writeTransaction;
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private volatile EmbeddingCacheService.Result lastEmbeddingResult;
+
+    /**
+     * Chunks to write and delete to bring the knowledge base in line with the fresh chunks.
+     *
+     * @param total number of fresh chunks
+     */
+    private record SyncPlan(List<KbChunk> changed, Collection<KbChunk> removed, int total) {}
 
     public FactIngestService(VesselRepository vesselRepository,
                              YardBlockRepository yardBlockRepository,
@@ -31,7 +62,10 @@ public class FactIngestService {
                              WeatherObservationRepository weatherObservationRepository,
                              KbChunkRepository kbChunkRepository,
                              AzureOpenAiService azureOpenAiService,
-                             DashboardService dashboardService) {
+                             EmbeddingCacheService embeddingCacheService,
+                             DashboardService dashboardService,
+                             KbGenerationService kbGenerationService,
+                             PlatformTransactionManager transactionManager) {
         this.vesselRepository = vesselRepository;
         this.yardBlockRepository = yardBlockRepository;
         this.berthRepository = berthRepository;
@@ -39,162 +73,242 @@ public class FactIngestService {
         this.weatherObservationRepository = weatherObservationRepository;
         this.kbChunkRepository = kbChunkRepository;
         this.azureOpenAiService = azureOpenAiService;
+        this.embeddingCacheService = embeddingCacheService;
         this.dashboardService = dashboardService;
+        this.kbGenerationService = kbGenerationService;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.writeTransaction = new TransactionTemplate(transactionManager);
     }
 
     /**
-     * Rebuild the entire knowledge base from scratch. This operation removes all existing chunks
-     * and ingests fresh facts. Each fact is embedded via Azure OpenAI if configured.
+     * Reconcile the entire knowledge base with the database. Every fact is regenerated and upserted;
+     * chunks whose source entity no longer exists are removed. Each fact is embedded via Azure
+     * OpenAI if configured; content that was embedded before with the same deployment is served
+     * from the embedding cache.
+     *
+     * @return number of chunks in the knowledge base after the rebuild
      */
-    @Transactional
     public int rebuild() {
-        kbChunkRepository.deleteAll();
+        return exclusively(() -> {
+            SyncPlan plan = readTransaction.execute(status -> plan(buildAllChunks(), kbChunkRepository.findAll()));
+            apply(plan);
+            return plan.total();
+        });
+    }
+
+    /**
+     * Refresh only the chunks derived from the given entities, plus the dashboard KPI chunk which
+     * depends on all of them. Entities that no longer exist have their chunks removed.
+     *
+     * @return number of chunks inserted, updated or deleted
+     */
+    public int refresh(Collection<EntityChangedEvent> changes) {
+        return exclusively(() -> {
+            SyncPlan plan = readTransaction.execute(status -> {
+                List<KbChunk> fresh = new ArrayList<>();
+                List<KbChunk> existing = new ArrayList<>();
+                for (EntityChangedEvent change : changes) {
+                    fresh.addAll(buildChunks(change.kind(), change.key()));
+                    existing.addAll(kbChunkRepository.findByKindAndSourceKey(change.kind(), change.key()));
+                }
+                fresh.add(kpiChunk());
+                existing.addAll(kbChunkRepository.findByKindAndSourceKey("kpi", "dashboard"));
+                return plan(fresh, existing);
+            });
+            return apply(plan);
+        });
+    }
+
+    /**
+     * Run work while holding the lock that serializes syncs, so no rebuild or refresh of kb_chunks
+     * starts or is half way through while it runs. The lock is reentrant, so the work may itself
+     * call {@link #rebuild()} or {@link #refresh(Collection)}.
+     */
+    public <T> T exclusively(Supplier<T> work) {
+        syncLock.lock();
+        try {
+            return work.get();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Generate the chunks for every fact currently in the database.
+     */
+    public List<KbChunk> buildAllChunks() {
         List<KbChunk> chunks = new ArrayList<>();
-        // Vessels
-        for (Vessel v : vesselRepository.findAll()) {
-            String content = String.format("Vessel %s (IMO %s) arrives at %s carrying %d TEU. Status: %s.",
-                    v.getName(),
-                    v.getImo(),
-                    v.getEta() != null ? v.getEta().toString() : "unknown",
-                    v.getExpectedTeu() != null ? v.getExpectedTeu() : 0,
-                    v.getStatus());
-            chunks.add(new KbChunk(
-                    UUID.randomUUID(),
-                    "vessel",
-                    v.getVesselId().toString(),
-                    v.getName(),
-                    content,
-                    null,
-                    null,
-                    null,
-                    Instant.now()
-            ));
+        vesselRepository.findAll().forEach(v -> chunks.add(vesselChunk(v)));
+        yardBlockRepository.findAll().forEach(b -> chunks.add(yardBlockChunk(b)));
+        berthRepository.findAll().forEach(b -> chunks.add(berthChunk(b)));
+        alertRepository.findAll().forEach(a -> chunks.add(alertChunk(a)));
+        // Weather, latest observation per location
+        weatherObservationRepository.findLatestPerLocation().forEach(w -> chunks.add(weatherChunk(w)));
+        chunks.add(kpiChunk());
+        return chunks;
+    }
+
+    /**
+     * Generate the chunks for a single entity; empty if the entity no longer exists.
+     */
+    private List<KbChunk> buildChunks(String kind, String key) {
+        Optional<KbChunk> chunk = switch (kind) {
+            case EntityChangedEvent.VESSEL -> vesselRepository.findById(UUID.fromString(key)).map(this::vesselChunk);
+            case EntityChangedEvent.YARD_BLOCK -> yardBlockRepository.findByCode(key).map(this::yardBlockChunk);
+            case EntityChangedEvent.BERTH -> berthRepository.findByCode(key).map(this::berthChunk);
+            case EntityChangedEvent.ALERT -> alertRepository.findById(UUID.fromString(key)).map(this::alertChunk);
+            case EntityChangedEvent.WEATHER -> weatherObservationRepository.findFirstByLocationOrderByObservedAtDesc(key).map(this::weatherChunk);
+            default -> Optional.empty();
+        };
+        return chunk.map(List::of).orElse(List.of());
+    }
+
+    /**
+     * Embed the content of the given chunks through the embedding cache and set their embeddings.
+     * Does nothing when Azure OpenAI is not configured.
+     */
+    public void embed(List<KbChunk> chunks) {
+        if (chunks.isEmpty() || !azureOpenAiService.isConfigured()) {
+            return;
         }
-        // Yard blocks
-        for (YardBlock b : yardBlockRepository.findAll()) {
-            String content = String.format("Yard block %s (category %s) has capacity %d and current count %d (%.1f%% utilisation). Status: %s.",
-                    b.getCode(),
-                    b.getCategory(),
-                    b.getCapacity(),
-                    b.getCurrentCount(),
-                    b.getUtilization(),
-                    b.getStatus());
-            chunks.add(new KbChunk(
-                    UUID.randomUUID(),
-                    "yard_block",
-                    b.getCode(),
-                    "Yard block " + b.getCode(),
-                    content,
-                    null,
-                    null,
-                    null,
-                    Instant.now()
-            ));
+        List<String> contents = chunks.stream().map(KbChunk::getContent).collect(Collectors.toList());
+        EmbeddingCacheService.Result result = embeddingCacheService.embedAll(contents);
+        for (int i = 0; i < chunks.size(); i++) {
+            float[] vec = result.embeddings().get(i);
+            chunks.get(i).setEmbedding(vec);
         }
-        // Berths
-        for (Berth berth : berthRepository.findAll()) {
-            String content = String.format("Berth %s is currently %s.", berth.getCode(), berth.getStatus());
-            chunks.add(new KbChunk(
-                    UUID.randomUUID(),
-                    "berth",
-                    berth.getCode(),
-                    "Berth " + berth.getCode(),
-                    content,
-                    null,
-                    null,
-                    null,
-                    Instant.now()
-            ));
+        log.info("KB ingest embedded {} of {} chunks (cache hit rate {}%, {} embedding inputs saved)",
+                result.embedded(), result.requested(),
+                String.format("%.1f", result.hitRate() * 100), result.callsSaved());
+        lastEmbeddingResult = result;
+    }
+
+    /**
+     * Embedding cache statistics from the most recent ingest, or null if none has embedded yet.
+     */
+    public EmbeddingCacheService.Result getLastEmbeddingResult() {
+        return lastEmbeddingResult;
+    }
+
+    /**
+     * Work out the upsert of the fresh chunks over the existing ones on (kind, source_key, title) and
+     * the deletion of existing chunks that have no fresh counterpart. Chunks whose content hash is
+     * unchanged and which already carry an embedding (or need none) are left untouched; the others
+     * are written from the fresh chunk, keyed by their natural key rather than the existing row.
+     */
+    private SyncPlan plan(List<KbChunk> fresh, List<KbChunk> existing) {
+        boolean embeddingsEnabled = azureOpenAiService.isConfigured();
+        Map<String, KbChunk> byKey = new HashMap<>();
+        for (KbChunk chunk : existing) {
+            byKey.put(naturalKey(chunk), chunk);
         }
-        // Alerts
-        for (Alert a : alertRepository.findAll()) {
-            String content = String.format("Alert: %s - %s. Suggestion: %s from %s to %s, TEU %s.",
-                    a.getSeverity(),
-                    a.getMessage(),
-                    a.getSuggestionAction(),
-                    a.getSuggestionFromBlock(),
-                    a.getSuggestionToBlock(),
-                    a.getSuggestionTeu());
-            chunks.add(new KbChunk(
-                    UUID.randomUUID(),
-                    "alert",
-                    a.getAlertId().toString(),
-                    "Alert " + a.getAlertId(),
-                    content,
-                    null,
-                    null,
-                    null,
-                    Instant.now()
-            ));
+        List<KbChunk> changed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (KbChunk chunk : fresh) {
+            String key = naturalKey(chunk);
+            if (!seen.add(key)) {
+                continue;
+            }
+            KbChunk current = byKey.remove(key);
+            if (current == null
+                    || !Objects.equals(current.getContentHash(), chunk.getContentHash())
+                    || (embeddingsEnabled && current.getEmbedding() == null)) {
+                changed.add(chunk);
+            }
         }
-        // Weather
-        List<WeatherObservation> obs = weatherObservationRepository.findAll();
-        if (!obs.isEmpty()) {
-            WeatherObservation latest = obs.stream()
-                    .max(Comparator.comparing(WeatherObservation::getObservedAt))
-                    .orElse(obs.get(0));
-            String content = String.format("Weather at %s: %s, %.1f°C, wind %.1fm/s, humidity %.1f%%, impact %s.",
-                    latest.getLocation(),
-                    latest.getCondition(),
-                    latest.getTemperature(),
-                    latest.getWindSpeed(),
-                    latest.getHumidity(),
-                    latest.getOperationalImpact());
-            chunks.add(new KbChunk(
-                    UUID.randomUUID(),
-                    "weather",
-                    latest.getLocation(),
-                    "Weather at " + latest.getLocation(),
-                    content,
-                    null,
-                    null,
-                    null,
-                    Instant.now()
-            ));
+        return new SyncPlan(changed, byKey.values(), fresh.size());
+    }
+
+    /**
+     * Embed the plan's changed chunks, then upsert and delete them by natural key in one transaction.
+     *
+     * @return number of chunks inserted, updated or deleted
+     */
+    private int apply(SyncPlan plan) {
+        if (plan.changed().isEmpty() && plan.removed().isEmpty()) {
+            return 0;
         }
-        // KPIs
+        embed(plan.changed());
+        writeTransaction.executeWithoutResult(status -> {
+            kbChunkRepository.upsertAll(plan.changed());
+            kbChunkRepository.deleteAllByNaturalKey(plan.removed());
+            kbGenerationService.markChanged();
+        });
+        return plan.changed().size() + plan.removed().size();
+    }
+
+    private static String naturalKey(KbChunk chunk) {
+        return chunk.getKind() + '\u0000' + chunk.getSourceKey() + '\u0000' + chunk.getTitle();
+    }
+
+    private KbChunk vesselChunk(Vessel v) {
+        String content = String.format("Vessel %s (IMO %s) arrives at %s carrying %d TEU. Status: %s.",
+                v.getName(),
+                v.getImo(),
+                v.getEta() != null ? v.getEta().toString() : "unknown",
+                v.getExpectedTeu() != null ? v.getExpectedTeu() : 0,
+                v.getStatus());
+        return chunk(EntityChangedEvent.VESSEL, v.getVesselId().toString(), v.getName(), content);
+    }
+
+    private KbChunk yardBlockChunk(YardBlock b) {
+        String content = String.format("Yard block %s (category %s) has capacity %d and current count %d (%.1f%% utilisation). Status: %s.",
+                b.getCode(),
+                b.getCategory(),
+                b.getCapacity(),
+                b.getCurrentCount(),
+                b.getUtilization(),
+                b.getStatus());
+        return chunk(EntityChangedEvent.YARD_BLOCK, b.getCode(), "Yard block " + b.getCode(), content);
+    }
+
+    private KbChunk berthChunk(Berth berth) {
+        String content = String.format("Berth %s is currently %s.", berth.getCode(), berth.getStatus());
+        return chunk(EntityChangedEvent.BERTH, berth.getCode(), "Berth " + berth.getCode(), content);
+    }
+
+    private KbChunk alertChunk(Alert a) {
+        String content = String.format("Alert: %s - %s. Suggestion: %s from %s to %s, TEU %s.",
+                a.getSeverity(),
+                a.getMessage(),
+                a.getSuggestionAction(),
+                a.getSuggestionFromBlock(),
+                a.getSuggestionToBlock(),
+                a.getSuggestionTeu());
+        return chunk(EntityChangedEvent.ALERT, a.getAlertId().toString(), "Alert " + a.getAlertId(), content);
+    }
+
+    private KbChunk weatherChunk(WeatherObservation latest) {
+        String content = String.format("Weather at %s: %s, %.1f°C, wind %.1fm/s, humidity %.1f%%, impact %s.",
+                latest.getLocation(),
+                latest.getCondition(),
+                latest.getTemperature(),
+                latest.getWindSpeed(),
+                latest.getHumidity(),
+                latest.getOperationalImpact());
+        return chunk(EntityChangedEvent.WEATHER, latest.getLocation(), "Weather at " + latest.getLocation(), content);
+    }
+
+    private KbChunk kpiChunk() {
         var dashboard = dashboardService.getDashboard();
-        String kpiContent = String.format("Average yard utilisation %.1f%%, waiting vessels %d, active alerts %d, TEU processed 24h %d.",
+        String content = String.format("Average yard utilisation %.1f%%, waiting vessels %d, active alerts %d, TEU processed 24h %d.",
                 dashboard.avgYardUtilization(),
                 dashboard.waitingVessels(),
                 dashboard.activeAlerts(),
                 dashboard.teuProcessed24h());
-        chunks.add(new KbChunk(
-                UUID.randomUUID(),
-                "kpi",
-                "dashboard",
-                "Dashboard KPIs",
-                kpiContent,
-                null,
-                null,
-                null,
-                Instant.now()
-        ));
-        // Embed and persist
-        List<String> contents = chunks.stream().map(KbChunk::getContent).collect(Collectors.toList());
-        List<float[]> embeddings = azureOpenAiService.isConfigured() ? azureOpenAiService.embed(contents) : Collections.emptyList();
-        for (int i = 0; i < chunks.size(); i++) {
-            KbChunk chunk = chunks.get(i);
-            if (azureOpenAiService.isConfigured() && i < embeddings.size()) {
-                float[] vec = embeddings.get(i);
-                String literal = toVectorLiteral(vec);
-                chunk.setEmbedding(literal);
-            } else {
-                chunk.setEmbedding(null);
-            }
-        }
-        kbChunkRepository.saveAll(chunks);
-        return chunks.size();
+        return chunk("kpi", "dashboard", "Dashboard KPIs", content);
     }
 
-    private String toVectorLiteral(float[] vec) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < vec.length; i++) {
-            sb.append(Float.toString(vec[i]));
-            if (i < vec.length - 1) sb.append(',');
-        }
-        sb.append(']');
-        return sb.toString();
+    private static KbChunk chunk(String kind, String sourceKey, String title, String content) {
+        return KbChunk.builder()
+                .id(UUID.randomUUID())
+                .kind(kind)
+                .sourceKey(sourceKey)
+                .title(title)
+                .content(content)
+                .contentHash(EmbeddingCacheService.hash(content))
+                .updatedAt(Instant.now())
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -1,54 +1,151 @@
 package com.surgeops.service;
 
 import com.surgeops.dto.GraphPointDto;
-import com.surgeops.entity.Vessel;
+import com.surgeops.repo.ArrivalRollupRepository;
 import com.surgeops.repo.VesselRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * Service for computing graph data used to display vessel arrivals and projected TEU over time.
+ * Bucketing is done in Postgres so only one row per bucket leaves the database. Hourly and coarser
+ * resolutions are served from the incrementally maintained arrival_rollup table; only 15-minute
+ * buckets aggregate the vessels table directly.
  */
 @Service
 public class GraphService {
 
+    /**
+     * Supported bucket widths, ordered from finest to coarsest.
+     */
+    public enum Resolution {
+        FIFTEEN_MINUTES(Duration.ofMinutes(15), "15 minutes"),
+        HOUR(Duration.ofHours(1), "1 hour"),
+        DAY(Duration.ofDays(1), "1 day"),
+        WEEK(Duration.ofDays(7), "7 days");
+
+        private final Duration width;
+        private final String interval;
+
+        Resolution(Duration width, String interval) {
+            this.width = width;
+            this.interval = interval;
+        }
+
+        public Duration getWidth() {
+            return width;
+        }
+
+        public String getInterval() {
+            return interval;
+        }
+    }
+
     private final VesselRepository vesselRepository;
+    private final ArrivalRollupRepository arrivalRollupRepository;
+    private final int defaultMaxPoints;
 
-    public GraphService(VesselRepository vesselRepository) {
+    public GraphService(VesselRepository vesselRepository,
+                        ArrivalRollupRepository arrivalRollupRepository,
+                        @Value("${app.graph.max-points:500}") int defaultMaxPoints) {
         this.vesselRepository = vesselRepository;
+        this.arrivalRollupRepository = arrivalRollupRepository;
+        this.defaultMaxPoints = defaultMaxPoints;
     }
 
     /**
      * Generate hourly buckets between from and to (inclusive of start, exclusive of end) summarising
-     * number of arrivals and projected TEU in each bucket.
+     * number of arrivals and projected TEU in each bucket. Long ranges are coarsened, and cut short
+     * when even weekly buckets are too many, so the result never exceeds the configured maximum
+     * number of points.
      */
     public List<GraphPointDto> getGraphData(Instant from, Instant to) {
+        return getGraphData(from, to, Resolution.HOUR, defaultMaxPoints);
+    }
+
+    /**
+     * Generate buckets of the requested resolution between from and to (inclusive of start, exclusive
+     * of end). If the range would produce more than maxPoints buckets the next coarser resolution is
+     * used instead. A null resolution selects the finest one that fits. If even weekly buckets do not
+     * fit, only the first maxPoints weeks of the range are returned. Rollup-backed resolutions
+     * count whole hours, so a range starting mid-hour includes that hour's earlier arrivals.
+     *
+     * @param resolution preferred bucket width (may be null)
+     * @param maxPoints  upper bound on returned points; non-positive values use the configured default
+     */
+    public List<GraphPointDto> getGraphData(Instant from, Instant to, Resolution resolution, int maxPoints) {
         if (from == null || to == null || !from.isBefore(to)) {
             return List.of();
         }
-        // Find all vessels whose ETA falls within the window
-        List<Vessel> vessels = vesselRepository.findByEtaBetweenOrderByEtaAsc(from, to);
-        // Group by hour bucket (UTC)
-        Map<Instant, List<Vessel>> bucketed = vessels.stream().collect(Collectors.groupingBy(v -> v.getEta().truncatedTo(ChronoUnit.HOURS)));
-        List<GraphPointDto> result = new ArrayList<>();
-        Instant cursor = from.truncatedTo(ChronoUnit.HOURS);
-        while (!cursor.isAfter(to)) {
-            Instant next = cursor.plus(1, ChronoUnit.HOURS);
-            List<Vessel> bucket = bucketed.getOrDefault(cursor, List.of());
-            int arrivals = bucket.size();
-            int projectedTeu = bucket.stream().mapToInt(v -> v.getExpectedTeu() != null ? v.getExpectedTeu() : 0).sum();
-            String label = DateTimeFormatter.ISO_INSTANT.withZone(ZoneOffset.UTC).format(cursor);
-            result.add(new GraphPointDto(label, arrivals, projectedTeu));
-            cursor = next;
+        int limit = maxPoints > 0 ? maxPoints : defaultMaxPoints;
+        Resolution effective = selectResolution(from, to, resolution, limit);
+        Instant end = clampEnd(from, to, effective, limit);
+        List<Object[]> rows = effective == Resolution.FIFTEEN_MINUTES
+                ? vesselRepository.aggregateArrivals(from, end, effective.getInterval())
+                : arrivalRollupRepository.aggregate(from, end, effective.getInterval());
+        List<GraphPointDto> result = new ArrayList<>(Math.min(rows.size(), limit));
+        for (Object[] row : rows.subList(0, Math.min(rows.size(), limit))) {
+            String label = DateTimeFormatter.ISO_INSTANT.withZone(ZoneOffset.UTC).format(toInstant(row[0]));
+            result.add(new GraphPointDto(label, ((Number) row[1]).intValue(), ((Number) row[2]).intValue()));
         }
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Pick the finest resolution at or above the requested one whose bucket count fits maxPoints,
+     * falling back to the coarsest resolution for very long ranges.
+     */
+    static Resolution selectResolution(Instant from, Instant to, Resolution requested, int maxPoints) {
+        Resolution[] all = Resolution.values();
+        int startIdx = requested != null ? requested.ordinal() : 0;
+        long rangeMillis = Duration.between(from, to).toMillis();
+        for (int i = startIdx; i < all.length; i++) {
+            if (maxBuckets(rangeMillis, all[i]) <= maxPoints) {
+                return all[i];
+            }
+        }
+        return all[all.length - 1];
+    }
+
+    /**
+     * Upper bound on the aligned buckets a range of the given length can touch.
+     */
+    private static long maxBuckets(long rangeMillis, Resolution resolution) {
+        long width = resolution.getWidth().toMillis();
+        return (rangeMillis + width - 1) / width + 1;
+    }
+
+    /**
+     * End of the range shortened, if needed, so it touches at most maxPoints buckets; this only
+     * happens when even the coarsest resolution does not fit, and keeps the query bounded too.
+     */
+    static Instant clampEnd(Instant from, Instant to, Resolution resolution, int maxPoints) {
+        if (maxBuckets(Duration.between(from, to).toMillis(), resolution) <= maxPoints) {
+            return to;
+        }
+        Instant end = from.plus(resolution.getWidth().multipliedBy(Math.max(1, maxPoints - 1)));
+        return end.isBefore(to) ? end : to;
+    }
+
+    private static Instant toInstant(Object value) {
+        if (value instanceof Instant instant) {
+            return instant;
+        }
+        if (value instanceof OffsetDateTime odt) {
+            return odt.toInstant();
+        }
+        if (value instanceof Timestamp ts) {
+            return ts.toInstant();
+        }
+        throw new IllegalStateException("Unexpected bucket type: " + value);
+    }
+}
@@ -0,0 +1,46 @@
+package com.surgeops.service;
+
+import com.surgeops.event.EntityChangedEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service tracking versions of the operational state the chat assistant is grounded on. Every
+ * committed {@link EntityChangedEvent} advances the version of its entity kind and the overall
+ * version, so anything derived from the yard, vessel, berth, alert or weather state can tell
+ * whether it is still current by comparing versions instead of re-reading the database.
+ */
+@Service
+public class GroundingStateService {
+
+    private final AtomicLong version = new AtomicLong();
+    private final Map<String, AtomicLong> kindVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Advance the versions once the publishing transaction has committed.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEntityChanged(EntityChangedEvent event) {
+        kindVersions.computeIfAbsent(event.kind(), k -> new AtomicLong()).incrementAndGet();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Version of the whole grounding state; advances on any change.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Version of one entity kind (see {@link EntityChangedEvent} constants).
+     */
+    public long version(String kind) {
+        AtomicLong v = kindVersions.get(kind);
+        return v != null ? v.get() : 0L;
+    }
+}
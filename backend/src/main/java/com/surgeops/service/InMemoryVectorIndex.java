@@ -0,0 +1,243 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.KbChunk;
+import com.surgeops.event.KbChangedEvent;
+import com.surgeops.repo.KbChunkRepository;
+import com.surgeops.repo.KbChunkRepositoryCustom.SearchParams;
+import com.surgeops.util.HnswIndex;
+import com.surgeops.util.VectorMath;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Retrieval backend holding every knowledge base embedding in process. Vectors are normalised to
+ * unit length and packed back to back in a single float array, so cosine similarity is a dot
+ * product over contiguous memory. Above a configurable size an HNSW graph is built over them;
+ * smaller knowledge bases are scanned exhaustively, which is exact and already sub-millisecond.
+ *
+ * <p>The index is an immutable snapshot replaced on a background thread whenever the knowledge
+ * base changes. Incremental changes only fetch the embeddings of rows whose updated_at moved; a
+ * new shadow generation is loaded in full. Until the first snapshot is ready, searches fall back
+ * to pgvector. Rebuilding the graph costs far more than a scan, so once a graph is in use reloads
+ * wait for the configured delay and every change arriving meanwhile is folded into the same one.
+ */
+@Service
+@ConditionalOnProperty(name = "app.rag.backend", havingValue = "memory")
+public class InMemoryVectorIndex implements VectorRetrievalBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryVectorIndex.class);
+
+    private record Snapshot(long generation,
+                            int size,
+                            float[] vectors,
+                            KbChunk[] chunks,
+                            Map<UUID, Integer> positions,
+                            Map<UUID, Instant> versions,
+                            HnswIndex graph) {}
+
+    private final KbChunkRepository kbChunkRepository;
+    private final KbGenerationService generationService;
+    private final int dim;
+    private final boolean graphEnabled;
+    private final int graphMinSize;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final long graphReloadDelayMs;
+    private final AtomicBoolean reloadQueued = new AtomicBoolean();
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "kb-memory-index");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Snapshot snapshot;
+
+    public InMemoryVectorIndex(KbChunkRepository kbChunkRepository,
+                               KbGenerationService generationService,
+                               @Value("${azure.openai.embedding-dim:1536}") int dim,
+                               @Value("${app.rag.memory.hnsw.enabled:true}") boolean graphEnabled,
+                               @Value("${app.rag.memory.hnsw.min-size:2000}") int graphMinSize,
+                               @Value("${app.rag.memory.hnsw.m:16}") int m,
+                               @Value("${app.rag.memory.hnsw.ef-construction:100}") int efConstruction,
+                               @Value("${app.rag.memory.hnsw.ef-search:64}") int efSearch,
+                               @Value("${app.rag.memory.hnsw.reload-delay-ms:10000}") long graphReloadDelayMs) {
+        this.kbChunkRepository = kbChunkRepository;
+        this.generationService = generationService;
+        this.dim = dim;
+        this.graphEnabled = graphEnabled;
+        this.graphMinSize = graphMinSize;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.graphReloadDelayMs = Math.max(0, graphReloadDelayMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduleReload();
+    }
+
+    @EventListener
+    public void onKbChanged(KbChangedEvent event) {
+        scheduleReload();
+    }
+
+    public int size() {
+        Snapshot s = snapshot;
+        return s != null ? s.size() : 0;
+    }
+
+    @Override
+    public List<KbChunk> findNearest(float[] embedding, int limit, Collection<String> kinds) {
+        Snapshot s = snapshot;
+        if (s == null) {
+            return kbChunkRepository.findNearest(embedding, limit, SearchParams.DEFAULTS, kinds);
+        }
+        float[] query = new float[dim];
+        VectorMath.normaliseInto(embedding, query, 0, dim);
+        boolean filtered = kinds != null && !kinds.isEmpty();
+        if (s.graph() != null) {
+            // Over-fetch when filtering so enough candidates of the requested kinds survive
+            int wanted = filtered ? Math.max(limit * 4, efSearch) : limit;
+            int[] nodes = s.graph().search(query, wanted, Math.max(efSearch, wanted));
+            List<KbChunk> result = new ArrayList<>(limit);
+            for (int node : nodes) {
+                KbChunk chunk = s.chunks()[node];
+                if (!filtered || kinds.contains(chunk.getKind())) {
+                    result.add(chunk);
+                    if (result.size() == limit) {
+                        return result;
+                    }
+                }
+            }
+            if (!filtered || result.size() == s.size()) {
+                return result;
+            }
+        }
+        return exhaustive(s, query, limit, filtered ? kinds : null);
+    }
+
+    /**
+     * Exact top-k by scanning every vector, keeping the best k in a small sorted buffer.
+     */
+    private List<KbChunk> exhaustive(Snapshot s, float[] query, int limit, Collection<String> kinds) {
+        int k = Math.min(limit, s.size());
+        int[] bestNodes = new int[k];
+        float[] bestSims = new float[k];
+        int count = 0;
+        for (int node = 0; node < s.size(); node++) {
+            if (kinds != null && !kinds.contains(s.chunks()[node].getKind())) {
+                continue;
+            }
+            float sim = VectorMath.dot(query, s.vectors(), node * dim);
+            if (count == k && (k == 0 || sim <= bestSims[k - 1])) {
+                continue;
+            }
+            int i = count < k ? count++ : k - 1;
+            while (i > 0 && bestSims[i - 1] < sim) {
+                bestSims[i] = bestSims[i - 1];
+                bestNodes[i] = bestNodes[i - 1];
+                i--;
+            }
+            bestSims[i] = sim;
+            bestNodes[i] = node;
+        }
+        List<KbChunk> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(s.chunks()[bestNodes[i]]);
+        }
+        return result;
+    }
+
+    private void scheduleReload() {
+        if (reloadQueued.compareAndSet(false, true)) {
+            Snapshot s = snapshot;
+            long delay = s != null && s.graph() != null ? graphReloadDelayMs : 0;
+            loader.schedule(() -> {
+                reloadQueued.set(false);
+                try {
+                    reload();
+                } catch (Exception ex) {
+                    log.warn("Reloading in-memory KB index failed", ex);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Build a new snapshot, reusing the vectors of unchanged chunks from the current one.
+     */
+    private void reload() {
+        long started = System.nanoTime();
+        Snapshot current = snapshot;
+        long generation = generationService.generation();
+        Map<UUID, Instant> versions = kbChunkRepository.findEmbeddedVersions();
+        boolean incremental = current != null && current.generation() == generation;
+
+        List<UUID> unchanged = new ArrayList<>();
+        List<KbChunk> fetched;
+        if (incremental) {
+            List<UUID> changed = new ArrayList<>();
+            versions.forEach((id, version) -> {
+                if (version.equals(current.versions().get(id)) && current.positions().containsKey(id)) {
+                    unchanged.add(id);
+                } else {
+                    changed.add(id);
+                }
+            });
+            if (changed.isEmpty() && unchanged.size() == current.size()) {
+                return;
+            }
+            fetched = kbChunkRepository.findEmbedded(changed);
+        } else {
+            fetched = kbChunkRepository.findEmbedded(null);
+        }
+
+        int size = unchanged.size() + fetched.size();
+        float[] vectors = new float[size * dim];
+        KbChunk[] chunks = new KbChunk[size];
+        Map<UUID, Integer> positions = new HashMap<>(size * 2);
+        Map<UUID, Instant> loadedVersions = new HashMap<>(size * 2);
+        int node = 0;
+        for (UUID id : unchanged) {
+            int previous = current.positions().get(id);
+            System.arraycopy(current.vectors(), previous * dim, vectors, node * dim, dim);
+            chunks[node] = current.chunks()[previous];
+            positions.put(id, node);
+            loadedVersions.put(id, current.versions().get(id));
+            node++;
+        }
+        for (KbChunk chunk : fetched) {
+            VectorMath.normaliseInto(chunk.getEmbedding(), vectors, node * dim, dim);
+            chunk.setEmbedding(null);
+            chunks[node] = chunk;
+            positions.put(chunk.getId(), node);
+            loadedVersions.put(chunk.getId(), chunk.getUpdatedAt());
+            node++;
+        }
+        HnswIndex graph = graphEnabled && size >= graphMinSize
+                ? HnswIndex.build(vectors, dim, size, m, efConstruction, generation)
+                : null;
+        snapshot = new Snapshot(generation, size, vectors, chunks, positions, loadedVersions, graph);
+        log.info("In-memory KB index loaded {} vectors ({} fetched, {}) in {} ms", size, fetched.size(),
+                graph != null ? "HNSW" : "exhaustive", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+}
@@ -0,0 +1,100 @@
+package com.surgeops.service;
+
+import com.surgeops.event.KbChangedEvent;
+import com.surgeops.util.TransactionCallbacks;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service tracking which knowledge base readers are looking at. The generation is the persisted
+ * pointer in kb_state that advances whenever a shadow rebuild swaps a new kb_chunks table in; the
+ * version is an in-process counter that also advances on every incremental refresh. Both changes
+ * publish a {@link KbChangedEvent} so caches derived from the knowledge base can be dropped.
+ */
+@Service
+public class KbGenerationService {
+
+    /**
+     * Persisted knowledge base state.
+     *
+     * @param deployment embeddings deployment the active generation was built with (null if unknown)
+     * @param dim        vector dimension of the active generation
+     */
+    public record State(long generation, String deployment, Integer dim) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher events;
+    private final AtomicLong version = new AtomicLong();
+    private volatile long generation = -1;
+
+    public KbGenerationService(JdbcTemplate jdbcTemplate, ApplicationEventPublisher events) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.events = events;
+    }
+
+    /**
+     * Read the persisted state from kb_state.
+     */
+    public State loadState() {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT generation, embeddings_deployment, embedding_dim FROM kb_state WHERE id = 1");
+        State state = new State(((Number) row.get("generation")).longValue(),
+                (String) row.get("embeddings_deployment"),
+                row.get("embedding_dim") != null ? ((Number) row.get("embedding_dim")).intValue() : null);
+        generation = state.generation();
+        return state;
+    }
+
+    /**
+     * Record the deployment and dimension of the active generation without changing it.
+     */
+    public void recordBuildSettings(String deployment, int dim) {
+        jdbcTemplate.update("UPDATE kb_state SET embeddings_deployment = ?, embedding_dim = ? WHERE id = 1",
+                deployment, dim);
+    }
+
+    /**
+     * Point kb_state at a newly swapped-in generation. Must run inside the swap transaction; the
+     * in-memory generation and change event follow once that transaction commits.
+     */
+    public void advanceGeneration(long next, String deployment, int dim) {
+        jdbcTemplate.update("UPDATE kb_state SET generation = ?, embeddings_deployment = ?, embedding_dim = ?, "
+                + "swapped_at = now() WHERE id = 1", next, deployment, dim);
+        TransactionCallbacks.afterCommit(() -> {
+            generation = next;
+            publish();
+        });
+    }
+
+    /**
+     * Note that the content of the active generation changed, after the current transaction commits.
+     */
+    public void markChanged() {
+        TransactionCallbacks.afterCommit(this::publish);
+    }
+
+    /**
+     * Active kb_chunks table generation.
+     */
+    public long generation() {
+        if (generation < 0) {
+            loadState();
+        }
+        return generation;
+    }
+
+    /**
+     * In-process content version; differs whenever retrieval results may differ.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    private void publish() {
+        events.publishEvent(new KbChangedEvent(version.incrementAndGet(), generation()));
+    }
+}
@@ -0,0 +1,97 @@
+package com.surgeops.service;
+
+import com.surgeops.dto.IndexBenchmarkDto;
+import com.surgeops.entity.KbChunk;
+import com.surgeops.repo.KbChunkRepository;
+import com.surgeops.repo.KbChunkRepositoryCustom.SearchParams;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Service measuring the recall/latency trade-off of the vector index. Embeddings sampled from the
+ * knowledge base serve as queries; their exact float32 nearest neighbours (found with index scans
+ * disabled) are the ground truth for recall@k at each value of the index's search parameter. With
+ * halfvec storage this measures the two-stage search against the float32 baseline.
+ */
+@Service
+public class KbIndexBenchmarkService {
+
+    private final KbChunkRepository kbChunkRepository;
+    private final KbIndexManager indexManager;
+
+    public KbIndexBenchmarkService(KbChunkRepository kbChunkRepository, KbIndexManager indexManager) {
+        this.kbChunkRepository = kbChunkRepository;
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param queries number of sample queries
+     * @param k       neighbours per query
+     * @param values  hnsw.ef_search or ivfflat.probes values to try, depending on the index type
+     */
+    public IndexBenchmarkDto run(int queries, int k, List<Integer> values) {
+        boolean hnsw = KbIndexManager.HNSW.equals(indexManager.getType());
+        String parameter = hnsw ? "hnsw.ef_search" : "ivfflat.probes";
+        List<float[]> samples = kbChunkRepository.sampleEmbeddings(queries);
+
+        List<Set<UUID>> truth = new ArrayList<>(samples.size());
+        long[] exactNanos = new long[samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            long start = System.nanoTime();
+            truth.add(ids(kbChunkRepository.findNearestExact(samples.get(i), k)));
+            exactNanos[i] = System.nanoTime() - start;
+        }
+
+        List<IndexBenchmarkDto.Setting> settings = new ArrayList<>();
+        for (int value : values) {
+            SearchParams params = hnsw ? new SearchParams(value, null) : new SearchParams(null, value);
+            long[] nanos = new long[samples.size()];
+            double recallSum = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                long start = System.nanoTime();
+                Set<UUID> found = ids(kbChunkRepository.findNearest(samples.get(i), k, params));
+                nanos[i] = System.nanoTime() - start;
+                Set<UUID> expected = truth.get(i);
+                if (!expected.isEmpty()) {
+                    found.retainAll(expected);
+                    recallSum += found.size() / (double) expected.size();
+                } else {
+                    recallSum += 1;
+                }
+            }
+            double recall = samples.isEmpty() ? 0d : recallSum / samples.size();
+            settings.add(new IndexBenchmarkDto.Setting(parameter, value, recall,
+                    percentileMillis(nanos, 0.50), percentileMillis(nanos, 0.95)));
+        }
+        long rows = kbChunkRepository.count();
+        long bytesPerVector = indexManager.bytesPerVector();
+        long float32BytesPerVector = indexManager.float32BytesPerVector();
+        return new IndexBenchmarkDto(indexManager.getType(), indexManager.getStorage(), indexManager.indexBytes(),
+                bytesPerVector, float32BytesPerVector, Math.max(0, (float32BytesPerVector - bytesPerVector) * rows),
+                rows, samples.size(), k,
+                percentileMillis(exactNanos, 0.50), percentileMillis(exactNanos, 0.95), settings);
+    }
+
+    private static Set<UUID> ids(List<KbChunk> chunks) {
+        return chunks.stream().map(KbChunk::getId).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private static double percentileMillis(long[] nanos, double percentile) {
+        if (nanos.length == 0) {
+            return 0d;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000_000d;
+    }
+}
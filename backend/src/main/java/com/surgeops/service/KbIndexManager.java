@@ -0,0 +1,187 @@
+package com.surgeops.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Service owning the vector index on kb_chunks. The index method is configurable: HNSW (default)
+ * with its m / ef_construction build parameters, or ivfflat with a list count that defaults to
+ * rows / 1000. On startup the live table's index is compared with the configuration and rebuilt
+ * concurrently when it differs, including an ivfflat index whose lists were sized for a much
+ * smaller table (e.g. the one created by the initial migration on an empty table). Shadow rebuilds
+ * use the same definition for each new generation.
+ *
+ * <p>With halfvec storage the index is built over {@code embedding::halfvec(dim)}, halving the
+ * size of every indexed vector (and lifting HNSW's 2,000 dimension limit to 4,000), while the
+ * table keeps the full float32 embedding for an exact rerank of the index's candidates.
+ */
+@Service
+public class KbIndexManager {
+
+    private static final Logger log = LoggerFactory.getLogger(KbIndexManager.class);
+    private static final Pattern OPTION = Pattern.compile("(\\w+)\\s*=\\s*'?(\\d+)'?");
+
+    public static final String HNSW = "hnsw";
+    public static final String IVFFLAT = "ivfflat";
+    public static final String FLOAT32 = "float32";
+    public static final String HALFVEC = "halfvec";
+    /** Name of the vector index on kb_chunks, as created by the initial migration. */
+    public static final String VECTOR_INDEX = "idx_kb_chunks_embedding";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final KbGenerationService generationService;
+    private final String type;
+    private final String storage;
+    private final int embeddingDim;
+    private final int m;
+    private final int efConstruction;
+    private final int lists;
+    private final boolean reconcileOnStartup;
+
+    public KbIndexManager(JdbcTemplate jdbcTemplate,
+                          KbGenerationService generationService,
+                          @Value("${app.kb.index.type:hnsw}") String type,
+                          @Value("${app.kb.index.storage:float32}") String storage,
+                          @Value("${azure.openai.embedding-dim:1536}") int embeddingDim,
+                          @Value("${app.kb.index.hnsw.m:16}") int m,
+                          @Value("${app.kb.index.hnsw.ef-construction:64}") int efConstruction,
+                          @Value("${app.kb.index.ivfflat.lists:0}") int lists,
+                          @Value("${app.kb.index.reconcile-on-startup:true}") boolean reconcileOnStartup) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.generationService = generationService;
+        this.type = type.toLowerCase(Locale.ROOT);
+        if (!HNSW.equals(this.type) && !IVFFLAT.equals(this.type)) {
+            throw new IllegalArgumentException("Unsupported app.kb.index.type: " + type);
+        }
+        this.storage = storage.toLowerCase(Locale.ROOT);
+        if (!FLOAT32.equals(this.storage) && !HALFVEC.equals(this.storage)) {
+            throw new IllegalArgumentException("Unsupported app.kb.index.storage: " + storage);
+        }
+        this.embeddingDim = embeddingDim;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.lists = lists;
+        this.reconcileOnStartup = reconcileOnStartup;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getStorage() {
+        return storage;
+    }
+
+    /**
+     * Bytes one vector occupies in the index entry for the configured storage (header plus values).
+     */
+    public long bytesPerVector() {
+        return HALFVEC.equals(storage) ? 8 + 2L * embeddingDim : float32BytesPerVector();
+    }
+
+    public long float32BytesPerVector() {
+        return 8 + 4L * embeddingDim;
+    }
+
+    /**
+     * Size on disk of the vector index on kb_chunks, or 0 if there is none.
+     */
+    public long indexBytes() {
+        Long bytes = jdbcTemplate.queryForObject(
+                "SELECT coalesce(sum(pg_relation_size(format('%I.%I', schemaname, indexname)::regclass)), 0) "
+                        + "FROM pg_indexes WHERE schemaname = current_schema() AND tablename = 'kb_chunks' "
+                        + "AND indexdef ~* 'USING (hnsw|ivfflat)'", Long.class);
+        return bytes != null ? bytes : 0L;
+    }
+
+    /**
+     * CREATE INDEX CONCURRENTLY statement for the configured vector index on a table.
+     *
+     * @param rows number of rows in the table, used to size ivfflat lists
+     */
+    public String vectorIndexDdl(String table, String indexName, long rows) {
+        String options = HNSW.equals(type)
+                ? "m = " + m + ", ef_construction = " + efConstruction
+                : "lists = " + listsFor(rows);
+        String column = HALFVEC.equals(storage)
+                ? "((embedding::halfvec(" + embeddingDim + ")) halfvec_cosine_ops)"
+                : "(embedding vector_cosine_ops)";
+        return "CREATE INDEX CONCURRENTLY " + indexName + " ON " + table
+                + " USING " + type + " " + column + " WITH (" + options + ")";
+    }
+
+    /**
+     * Rebuild the live table's vector index if it does not match the configuration. The new index
+     * is built concurrently under a temporary name before the old one is dropped, so searches stay
+     * indexed throughout, and then takes the canonical name.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        if (!reconcileOnStartup) {
+            return;
+        }
+        List<Map<String, Object>> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = current_schema() "
+                        + "AND tablename = 'kb_chunks' AND indexdef ~* 'USING (hnsw|ivfflat)'");
+        long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM kb_chunks WHERE embedding IS NOT NULL", Long.class);
+        boolean current = indexes.size() == 1 && matches((String) indexes.get(0).get("indexdef"), rows);
+        if (current) {
+            return;
+        }
+        String name = "idx_kb_chunks_embedding_g" + generationService.generation() + "_" + type
+                + "_" + System.currentTimeMillis() / 1000;
+        log.info("Building {} {} vector index {} on kb_chunks ({} rows)", storage, type, name, rows);
+        jdbcTemplate.execute(vectorIndexDdl("kb_chunks", name, rows));
+        for (Map<String, Object> index : indexes) {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index.get("indexname"));
+            log.info("Dropped vector index {}", index.get("indexname"));
+        }
+        jdbcTemplate.execute("ALTER INDEX " + name + " RENAME TO " + VECTOR_INDEX);
+    }
+
+    /**
+     * Whether an existing index definition matches the configuration. Auto-sized ivfflat indexes
+     * only count as stale once the list count is more than four times off the recommended value.
+     */
+    boolean matches(String indexdef, long rows) {
+        String def = indexdef.toLowerCase(Locale.ROOT);
+        String opclass = HALFVEC.equals(storage) ? "halfvec(" + embeddingDim + ")) halfvec_cosine_ops" : "(embedding vector_cosine_ops)";
+        if (!def.contains("using " + type + " ") || !def.contains(opclass)) {
+            return false;
+        }
+        Map<String, Integer> options = new HashMap<>();
+        int with = def.indexOf(" with (");
+        Matcher matcher = OPTION.matcher(with < 0 ? "" : def.substring(with));
+        while (matcher.find()) {
+            options.put(matcher.group(1), Integer.parseInt(matcher.group(2)));
+        }
+        if (HNSW.equals(type)) {
+            return options.getOrDefault("m", 16) == m && options.getOrDefault("ef_construction", 64) == efConstruction;
+        }
+        int existing = options.getOrDefault("lists", 100);
+        if (lists > 0) {
+            return existing == lists;
+        }
+        int recommended = listsFor(rows);
+        return existing <= recommended * 4 && recommended <= existing * 4;
+    }
+
+    /**
+     * ivfflat list count: the configured value, or rows / 1000 (at least 1) as pgvector recommends.
+     */
+    private int listsFor(long rows) {
+        return lists > 0 ? lists : (int) Math.max(1, rows / 1000);
+    }
+}
@@ -0,0 +1,118 @@
+package com.surgeops.service;
+
+import com.surgeops.event.EntityChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service that keeps the knowledge base current without full rebuilds. Entity change events are
+ * collected after their transaction commits; a short debounce loop drains them and asks
+ * {@link FactIngestService} to refresh only the affected chunks, so a burst of writes to the same
+ * entity results in a single refresh.
+ *
+ * <p>A failed refresh is re-queued and retried with exponential backoff; changes that keep failing
+ * are dropped after the configured number of attempts (the next full rebuild or change of the same
+ * entity picks them up again).
+ */
+@Service
+public class KbRefreshService {
+
+    private static final Logger log = LoggerFactory.getLogger(KbRefreshService.class);
+
+    private final FactIngestService factIngestService;
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final Set<EntityChangedEvent> pending = ConcurrentHashMap.newKeySet();
+    private final Map<EntityChangedEvent, Integer> attempts = new ConcurrentHashMap<>();
+    private int consecutiveFailures;
+    private long retryAtMillis;
+
+    public KbRefreshService(FactIngestService factIngestService,
+                            @Value("${app.kb.refresh.enabled:true}") boolean enabled,
+                            @Value("${app.kb.refresh.max-attempts:5}") int maxAttempts,
+                            @Value("${app.kb.refresh.backoff-base-ms:2000}") long backoffBaseMs,
+                            @Value("${app.kb.refresh.backoff-max-ms:300000}") long backoffMaxMs) {
+        this.factIngestService = factIngestService;
+        this.enabled = enabled;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseMs = Math.max(1, backoffBaseMs);
+        this.backoffMaxMs = Math.max(this.backoffBaseMs, backoffMaxMs);
+    }
+
+    /**
+     * Queue a changed entity for refresh once the publishing transaction has committed.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEntityChanged(EntityChangedEvent event) {
+        if (enabled) {
+            // A new change gets a fresh set of attempts
+            attempts.remove(event);
+            pending.add(event);
+        }
+    }
+
+    /**
+     * Refresh the chunks of all entities changed since the previous run, unless backing off after a
+     * failure.
+     */
+    @Scheduled(fixedDelayString = "${app.kb.refresh.debounce-ms:2000}")
+    public void flush() {
+        if (pending.isEmpty() || System.currentTimeMillis() < retryAtMillis) {
+            return;
+        }
+        List<EntityChangedEvent> batch = new ArrayList<>();
+        for (EntityChangedEvent event : pending) {
+            if (pending.remove(event)) {
+                batch.add(event);
+            }
+        }
+        try {
+            int written = factIngestService.refresh(batch);
+            log.debug("KB refresh of {} changed entities wrote {} chunks", batch.size(), written);
+            batch.forEach(attempts::remove);
+            consecutiveFailures = 0;
+            retryAtMillis = 0;
+        } catch (Exception ex) {
+            onFailure(batch, ex);
+        }
+    }
+
+    /**
+     * Re-queue the failed changes that have attempts left and back off exponentially. The stack
+     * trace is logged for the first failure of a streak only.
+     */
+    private void onFailure(List<EntityChangedEvent> batch, Exception ex) {
+        int dropped = 0;
+        for (EntityChangedEvent event : batch) {
+            int attempt = attempts.merge(event, 1, Integer::sum);
+            if (attempt >= maxAttempts) {
+                attempts.remove(event);
+                dropped++;
+            } else {
+                pending.add(event);
+            }
+        }
+        consecutiveFailures++;
+        long delay = Math.min(backoffMaxMs, backoffBaseMs << Math.min(consecutiveFailures - 1, 20));
+        retryAtMillis = System.currentTimeMillis() + delay;
+        if (consecutiveFailures == 1) {
+            log.warn("KB refresh failed; retrying {} changes in {} ms, dropped {} after {} attempts",
+                    batch.size() - dropped, delay, dropped, maxAttempts, ex);
+        } else {
+            log.warn("KB refresh failed again ({}); retrying {} changes in {} ms, dropped {} after {} attempts",
+                    ex.toString(), batch.size() - dropped, delay, dropped, maxAttempts);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.KbChunk;
+import com.surgeops.util.PgVector;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service that rebuilds the knowledge base without blocking retrieval. A new generation is written
+ * to a shadow table kb_chunks_g&lt;n&gt; in the background and its indexes are built concurrently;
+ * readers keep querying kb_chunks throughout. The shadow table is then swapped in by renaming both
+ * tables in one short transaction and recording the generation in kb_state. Retired generations
+ * are dropped once a grace period has passed so in-flight queries can finish against them.
+ *
+ * <p>Used when every embedding has to change, i.e. after switching the embeddings deployment or
+ * dimension. Day-to-day changes go through {@link KbRefreshService} instead.
+ */
+@Service
+public class KbShadowRebuildService {
+
+    private static final Logger log = LoggerFactory.getLogger(KbShadowRebuildService.class);
+    private static final String LIVE_TABLE = "kb_chunks";
+    private static final String SHADOW_PREFIX = "kb_chunks_g";
+    private static final String RETIRED_PREFIX = "kb_chunks_retired_g";
+
+    private final FactIngestService factIngestService;
+    private final KbGenerationService generationService;
+    private final KbIndexManager indexManager;
+    private final AzureOpenAiService azureOpenAiService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int embeddingDim;
+    private final int batchSize;
+    private final Duration retiredGrace;
+    private final boolean autoRebuild;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Map<String, Instant> retiredAt = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "kb-shadow-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public KbShadowRebuildService(FactIngestService factIngestService,
+                                  KbGenerationService generationService,
+                                  KbIndexManager indexManager,
+                                  AzureOpenAiService azureOpenAiService,
+                                  JdbcTemplate jdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${azure.openai.embedding-dim:1536}") int embeddingDim,
+                                  @Value("${app.kb.shadow.batch-size:500}") int batchSize,
+                                  @Value("${app.kb.shadow.retired-grace-minutes:10}") long retiredGraceMinutes,
+                                  @Value("${app.kb.shadow.auto-rebuild:true}") boolean autoRebuild) {
+        this.factIngestService = factIngestService;
+        this.generationService = generationService;
+        this.indexManager = indexManager;
+        this.azureOpenAiService = azureOpenAiService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.embeddingDim = embeddingDim;
+        this.batchSize = Math.max(1, batchSize);
+        this.retiredGrace = Duration.ofMinutes(retiredGraceMinutes);
+        this.autoRebuild = autoRebuild;
+    }
+
+    /**
+     * On startup drop leftovers of interrupted rebuilds and retired generations, then start a shadow
+     * rebuild if the active generation was built with a different deployment or dimension.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        dropTables(SHADOW_PREFIX);
+        dropTables(RETIRED_PREFIX);
+        KbGenerationService.State state = generationService.loadState();
+        String deployment = azureOpenAiService.getEmbeddingsDeployment();
+        boolean dimChanged = state.dim() != null && state.dim() != embeddingDim;
+        boolean deploymentChanged = state.deployment() != null && !state.deployment().equals(deployment);
+        if (!dimChanged && !deploymentChanged) {
+            if (!Objects.equals(state.deployment(), deployment) || state.dim() == null) {
+                generationService.recordBuildSettings(deployment, embeddingDim);
+            }
+            return;
+        }
+        if (autoRebuild && azureOpenAiService.isConfigured()) {
+            log.info("KB generation {} was built with {} ({} dims); rebuilding for {} ({} dims)",
+                    state.generation(), state.deployment(), state.dim(), deployment, embeddingDim);
+            rebuildInBackground();
+        } else {
+            log.warn("KB generation {} was built with {} ({} dims) but {} ({} dims) is configured; "
+                    + "a shadow rebuild is required", state.generation(), state.deployment(), state.dim(),
+                    deployment, embeddingDim);
+        }
+    }
+
+    /**
+     * Start a shadow rebuild on the background thread. If one is already running its result is not
+     * affected and the returned future completes exceptionally.
+     *
+     * @return future completing with the generation that was swapped in
+     */
+    public CompletableFuture<Long> rebuildInBackground() {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("KB shadow rebuild already running"));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return rebuild();
+            } finally {
+                running.set(false);
+            }
+        }, executor);
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Build, index and swap in a new generation, then reconcile it with changes made while it was
+     * being built.
+     */
+    private long rebuild() {
+        long current = generationService.loadState().generation();
+        long next = current + 1;
+        String shadow = SHADOW_PREFIX + next;
+        long started = System.nanoTime();
+        try {
+            createShadowTable(shadow);
+            List<KbChunk> chunks = factIngestService.buildAllChunks();
+            for (int from = 0; from < chunks.size(); from += batchSize) {
+                List<KbChunk> batch = chunks.subList(from, Math.min(chunks.size(), from + batchSize));
+                factIngestService.embed(batch);
+                insert(shadow, batch);
+            }
+            createIndexes(shadow, next, chunks.size());
+            jdbcTemplate.execute("ANALYZE " + shadow);
+        } catch (RuntimeException ex) {
+            log.warn("KB shadow rebuild of generation {} failed; keeping generation {}", next, current, ex);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + shadow);
+            throw ex;
+        }
+        // Hold off incremental refreshes until the new generation has caught up, so none plans
+        // against the retired table and writes its result into the new one
+        return factIngestService.exclusively(() -> {
+            try {
+                swap(current, next, shadow);
+            } catch (RuntimeException ex) {
+                log.warn("KB swap to generation {} failed; keeping generation {}", next, current, ex);
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + shadow);
+                throw ex;
+            }
+            log.info("KB generation {} swapped in after {} ms", next, Duration.ofNanos(System.nanoTime() - started).toMillis());
+            // Pick up entity changes that were applied to the previous generation during the build
+            try {
+                factIngestService.rebuild();
+            } catch (RuntimeException ex) {
+                log.warn("KB generation {} is live but catching up with changes made during the build failed; "
+                        + "they are applied by the next refresh or rebuild", next, ex);
+            }
+            return next;
+        });
+    }
+
+    private void createShadowTable(String shadow) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + shadow);
+        jdbcTemplate.execute("CREATE TABLE " + shadow + " (LIKE " + LIVE_TABLE + " INCLUDING DEFAULTS INCLUDING GENERATED)");
+        jdbcTemplate.execute("ALTER TABLE " + shadow + " ALTER COLUMN embedding TYPE vector(" + embeddingDim + ")");
+    }
+
+    private void insert(String shadow, List<KbChunk> batch) {
+        jdbcTemplate.batchUpdate("INSERT INTO " + shadow
+                        + " (id, kind, source_key, title, content, uri, meta, content_hash, embedding, updated_at)"
+                        + " VALUES (?, ?, ?, ?, ?, ?, CAST(? AS jsonb), ?, ?, ?)",
+                batch, batch.size(), (ps, chunk) -> {
+                    PgVector.register(ps.getConnection());
+                    ps.setObject(1, chunk.getId());
+                    ps.setString(2, chunk.getKind());
+                    ps.setString(3, chunk.getSourceKey());
+                    ps.setString(4, chunk.getTitle());
+                    ps.setString(5, chunk.getContent());
+                    ps.setString(6, chunk.getUri());
+                    ps.setString(7, chunk.getMeta());
+                    ps.setString(8, chunk.getContentHash());
+                    ps.setObject(9, chunk.getEmbedding() != null ? new PgVector(chunk.getEmbedding()) : null, Types.OTHER);
+                    ps.setTimestamp(10, Timestamp.from(chunk.getUpdatedAt()));
+                });
+    }
+
+    /**
+     * Build the shadow table's indexes. Runs on an autocommit connection so CONCURRENTLY is allowed;
+     * nothing reads the shadow table yet, but this keeps writes to kb_chunks unaffected by lock waits.
+     */
+    private void createIndexes(String shadow, long generation, int rows) {
+        // Renamed to their canonical names on swap, see canonicalNames()
+        jdbcTemplate.execute("ALTER TABLE " + shadow + " ADD CONSTRAINT " + shadow + "_pkey PRIMARY KEY (id)");
+        jdbcTemplate.execute("CREATE UNIQUE INDEX CONCURRENTLY uq_kb_kind_key_title_g" + generation
+                + " ON " + shadow + " (kind, source_key, title)");
+        jdbcTemplate.execute(indexManager.vectorIndexDdl(shadow, "idx_kb_chunks_embedding_g" + generation, rows));
+        jdbcTemplate.execute("CREATE INDEX CONCURRENTLY idx_kb_chunks_tsv_g" + generation
+                + " ON " + shadow + " USING GIN (tsv)");
+    }
+
+    /**
+     * Rename the live table out of the way and the shadow table into place in one transaction.
+     * Queries that arrive during the swap wait on the lock and then resolve kb_chunks to the new table.
+     * The retired table's constraints and indexes are renamed after it, and the new table's take the
+     * canonical names of the migrations, so later migrations can keep referring to those names.
+     */
+    private void swap(long current, long next, String shadow) {
+        String retired = RETIRED_PREFIX + current;
+        String deployment = azureOpenAiService.getEmbeddingsDeployment();
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("LOCK TABLE " + LIVE_TABLE + " IN ACCESS EXCLUSIVE MODE");
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + retired);
+            jdbcTemplate.execute("ALTER TABLE " + LIVE_TABLE + " RENAME TO " + retired);
+            retireNames(retired);
+            jdbcTemplate.execute("ALTER TABLE " + shadow + " RENAME TO " + LIVE_TABLE);
+            jdbcTemplate.execute("ALTER TABLE " + LIVE_TABLE + " RENAME CONSTRAINT " + shadow + "_pkey TO " + LIVE_TABLE + "_pkey");
+            canonicalNames(next).forEach((from, to) -> jdbcTemplate.execute("ALTER INDEX " + from + " RENAME TO " + to));
+            generationService.advanceGeneration(next, deployment, embeddingDim);
+        });
+        retiredAt.put(retired, Instant.now());
+    }
+
+    /**
+     * Generation-specific index names given by {@link #createIndexes}, mapped to the canonical names.
+     */
+    private static Map<String, String> canonicalNames(long generation) {
+        return Map.of(
+                "uq_kb_kind_key_title_g" + generation, "uq_kb_kind_key_title",
+                "idx_kb_chunks_embedding_g" + generation, KbIndexManager.VECTOR_INDEX,
+                "idx_kb_chunks_tsv_g" + generation, "idx_kb_chunks_tsv");
+    }
+
+    /**
+     * Rename a retired table's constraints and indexes after the table, freeing their names.
+     */
+    private void retireNames(String retired) {
+        List<String> constraints = jdbcTemplate.queryForList(
+                "SELECT conname FROM pg_constraint WHERE conrelid = CAST(? AS regclass) AND contype IN ('p', 'u') ORDER BY conname",
+                String.class, retired);
+        for (int i = 0; i < constraints.size(); i++) {
+            // Renaming a constraint renames its index too
+            jdbcTemplate.execute("ALTER TABLE " + retired + " RENAME CONSTRAINT \"" + constraints.get(i) + "\" TO "
+                    + retired + "_c" + i);
+        }
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE schemaname = current_schema() AND tablename = ? "
+                        + "AND indexname NOT LIKE ? ORDER BY indexname",
+                String.class, retired, retired + "\\_c%");
+        for (int i = 0; i < indexes.size(); i++) {
+            jdbcTemplate.execute("ALTER INDEX \"" + indexes.get(i) + "\" RENAME TO " + retired + "_i" + i);
+        }
+    }
+
+    /**
+     * Drop retired generations whose grace period has passed.
+     */
+    @Scheduled(fixedDelayString = "${app.kb.shadow.gc-interval-ms:60000}")
+    public void collectRetired() {
+        Instant cutoff = Instant.now().minus(retiredGrace);
+        retiredAt.forEach((table, at) -> {
+            if (at.isBefore(cutoff)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+                retiredAt.remove(table);
+                log.info("Dropped retired KB table {}", table);
+            }
+        });
+    }
+
+    private void dropTables(String prefix) {
+        List<String> tables = jdbcTemplate.queryForList(
+                "SELECT tablename FROM pg_tables WHERE schemaname = current_schema() AND tablename LIKE ?",
+                String.class, prefix + "%");
+        for (String table : tables) {
+            if (table.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+                log.info("Dropped stale KB table {}", table);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
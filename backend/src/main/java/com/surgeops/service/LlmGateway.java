@@ -0,0 +1,361 @@
+package com.surgeops.service;
+
+import com.surgeops.util.CircuitBreaker;
+import com.surgeops.util.TokenBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Gateway shared by all calls to the LLM service, so that a burst of one kind of work (e.g. a bulk
+ * ingest) cannot starve the others or pile up blocked threads when the service is slow or down.
+ *
+ * <p>Every call names a {@link Lane}. Each lane has a token bucket limiting the LLM tokens it may
+ * spend per minute, a concurrency limit and a timeout; on top of that, a global concurrency limit
+ * is shared by all lanes, and when it is reached the freed slots go to waiting calls in lane
+ * priority order. A call that would wait longer than its lane allows for tokens or a slot is
+ * rejected rather than queued.
+ *
+ * <p>Each target (a model deployment) has a circuit breaker: after repeated failures (timeouts,
+ * connection errors and 5xx responses) calls to it are refused immediately for a while, then a
+ * single probe call decides whether it has recovered. Throttling (429) is left to the callers'
+ * Retry-After handling and does not count, so ordinary rate limiting never opens the circuit. Rejected and refused calls fail with
+ * {@link LlmUnavailableException}, which callers handle by falling back to their deterministic
+ * answers.
+ */
+@Service
+public class LlmGateway {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmGateway.class);
+
+    /**
+     * Kinds of LLM work, in priority order.
+     */
+    public enum Lane {
+        PLAN("plan", 4, 60_000, 5_000, 30_000),
+        CHAT("chat", 4, 60_000, 3_000, 30_000),
+        SUMMARY("summary", 2, 20_000, 10_000, 30_000),
+        INGEST("ingest", 2, 200_000, 120_000, 60_000);
+
+        private final String key;
+        private final int defaultMaxConcurrent;
+        private final long defaultTokensPerMinute;
+        private final long defaultMaxWaitMs;
+        private final long defaultTimeoutMs;
+
+        Lane(String key, int maxConcurrent, long tokensPerMinute, long maxWaitMs, long timeoutMs) {
+            this.key = key;
+            this.defaultMaxConcurrent = maxConcurrent;
+            this.defaultTokensPerMinute = tokensPerMinute;
+            this.defaultMaxWaitMs = maxWaitMs;
+            this.defaultTimeoutMs = timeoutMs;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    /**
+     * Thrown when a call is refused by an open circuit or rejected by its lane's limits.
+     */
+    public static class LlmUnavailableException extends RuntimeException {
+        public LlmUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Retryable HTTP failure of an LLM call (429 or 5xx), with the delay requested by the service.
+     */
+    public static class RetryableStatusException extends RuntimeException {
+        private final int status;
+        private final Duration retryAfter;
+
+        public RetryableStatusException(String message, int status, Duration retryAfter) {
+            super(message);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        /**
+         * Delay requested by the service, or null if it sent none.
+         */
+        public Duration retryAfter() {
+            return retryAfter;
+        }
+    }
+
+    private record LaneLimits(int maxConcurrent, Duration maxWait, Duration timeout, TokenBucket bucket) {}
+
+    /**
+     * A call waiting for a slot. State is guarded by the gateway's lock.
+     */
+    private static class Waiter {
+        final Lane lane;
+        final Consumer<Permit> onGrant;
+        Permit permit;
+
+        Waiter(Lane lane, Consumer<Permit> onGrant) {
+            this.lane = lane;
+            this.onGrant = onGrant;
+        }
+    }
+
+    /**
+     * A granted slot; releasing it more than once has no effect.
+     */
+    private class Permit {
+        final Lane lane;
+        final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Lane lane) {
+            this.lane = lane;
+        }
+
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            List<Waiter> granted;
+            synchronized (lock) {
+                inFlight--;
+                laneInFlight[lane.ordinal()]--;
+                granted = dispatch();
+            }
+            granted.forEach(w -> w.onGrant.accept(w.permit));
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Map<Lane, LaneLimits> limits = new EnumMap<>(Lane.class);
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Map<Lane, Timer> waitTimers = new EnumMap<>(Lane.class);
+
+    private final Object lock = new Object();
+    private int inFlight;
+    private final int[] laneInFlight = new int[Lane.values().length];
+    private final List<Deque<Waiter>> queues = new ArrayList<>();
+
+    public LlmGateway(MeterRegistry meterRegistry,
+                      Environment environment,
+                      @Value("${app.llm.max-concurrent:8}") int maxConcurrent,
+                      @Value("${app.llm.circuit.failure-threshold:5}") int failureThreshold,
+                      @Value("${app.llm.circuit.open-seconds:30}") long openSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.failureThreshold = failureThreshold;
+        this.openDuration = Duration.ofSeconds(openSeconds);
+        for (Lane lane : Lane.values()) {
+            String prefix = "app.llm.lanes." + lane.key + ".";
+            long tokensPerMinute = environment.getProperty(prefix + "tokens-per-minute", Long.class, lane.defaultTokensPerMinute);
+            limits.put(lane, new LaneLimits(
+                    Math.max(1, environment.getProperty(prefix + "max-concurrent", Integer.class, lane.defaultMaxConcurrent)),
+                    Duration.ofMillis(environment.getProperty(prefix + "max-wait-ms", Long.class, lane.defaultMaxWaitMs)),
+                    Duration.ofMillis(environment.getProperty(prefix + "timeout-ms", Long.class, lane.defaultTimeoutMs)),
+                    new TokenBucket(tokensPerMinute, tokensPerMinute)));
+            queues.add(new ArrayDeque<>());
+            Tags tags = Tags.of("lane", lane.key);
+            waitTimers.put(lane, Timer.builder("llm.gateway.wait").tags(tags).register(meterRegistry));
+            meterRegistry.gauge("llm.gateway.in-flight", tags, this, g -> g.inFlight(lane));
+            meterRegistry.gauge("llm.gateway.queued", tags, this, g -> g.queued(lane));
+        }
+    }
+
+    /**
+     * Run a request in the given lane against the given target. The request is subscribed once
+     * the lane's tokens and a slot are available, and is subject to the lane's timeout.
+     *
+     * @param cost estimated LLM tokens the request consumes (prompt plus completion)
+     */
+    public <T> Mono<T> call(Lane lane, String target, long cost, Supplier<Mono<T>> request) {
+        LaneLimits laneLimits = limits.get(lane);
+        return Mono.defer(() -> {
+            CircuitBreaker breaker = breaker(target);
+            return Mono.usingWhen(admit(lane, target, cost, breaker),
+                    permit -> Mono.defer(request)
+                            .timeout(laneLimits.timeout())
+                            .doOnSuccess(value -> breaker.onSuccess())
+                            .doOnError(ex -> record(breaker, target, ex))
+                            .doOnCancel(breaker::onIgnored),
+                    permit -> Mono.fromRunnable(permit::release),
+                    (permit, ex) -> Mono.fromRunnable(permit::release),
+                    permit -> Mono.fromRunnable(permit::release));
+        });
+    }
+
+    /**
+     * Run a streaming request in the given lane against the given target. The lane's timeout is
+     * not applied, since a stream runs for as long as the reply takes to generate; callers bound
+     * it with their own first-element and idle timeouts.
+     */
+    public <T> Flux<T> stream(Lane lane, String target, long cost, Supplier<Flux<T>> request) {
+        return Flux.defer(() -> {
+            CircuitBreaker breaker = breaker(target);
+            return Flux.usingWhen(admit(lane, target, cost, breaker),
+                    permit -> Flux.defer(request)
+                            .doOnComplete(breaker::onSuccess)
+                            .doOnError(ex -> record(breaker, target, ex))
+                            .doOnCancel(breaker::onIgnored),
+                    permit -> Mono.fromRunnable(permit::release),
+                    (permit, ex) -> Mono.fromRunnable(permit::release),
+                    permit -> Mono.fromRunnable(permit::release));
+        });
+    }
+
+    /**
+     * Pass the circuit, reserve the lane's tokens and wait for a slot, failing fast if the circuit
+     * is open or the wait would exceed the lane's limit.
+     */
+    private Mono<Permit> admit(Lane lane, String target, long cost, CircuitBreaker breaker) {
+        LaneLimits laneLimits = limits.get(lane);
+        if (!breaker.tryAcquire()) {
+            return reject(lane, "circuit_open", "LLM circuit for " + target + " is open");
+        }
+        long tokenWait = laneLimits.bucket().reserve(cost, laneLimits.maxWait().toNanos());
+        if (tokenWait < 0) {
+            breaker.onIgnored();
+            return reject(lane, "rate_limited", "LLM " + lane.key + " lane is over its token rate");
+        }
+        long started = System.nanoTime();
+        Mono<Permit> slot = Mono.create(sink -> {
+            Waiter waiter = enqueue(lane, sink::success);
+            sink.onCancel(() -> cancel(waiter));
+        });
+        return Mono.delay(Duration.ofNanos(tokenWait))
+                .then(slot)
+                .timeout(laneLimits.maxWait())
+                .doOnNext(permit -> waitTimers.get(lane).record(Duration.ofNanos(System.nanoTime() - started)))
+                .onErrorResume(TimeoutException.class, ex -> {
+                    breaker.onIgnored();
+                    laneLimits.bucket().refund(cost);
+                    return reject(lane, "queue_timeout", "No LLM slot for the " + lane.key + " lane within "
+                            + laneLimits.maxWait().toMillis() + " ms");
+                })
+                .doOnCancel(() -> {
+                    breaker.onIgnored();
+                    laneLimits.bucket().refund(cost);
+                });
+    }
+
+    private <T> Mono<T> reject(Lane lane, String reason, String message) {
+        meterRegistry.counter("llm.gateway.rejected", "lane", lane.key, "reason", reason).increment();
+        return Mono.error(new LlmUnavailableException(message));
+    }
+
+    private Waiter enqueue(Lane lane, Consumer<Permit> onGrant) {
+        Waiter waiter = new Waiter(lane, onGrant);
+        List<Waiter> granted;
+        synchronized (lock) {
+            queues.get(lane.ordinal()).addLast(waiter);
+            granted = dispatch();
+        }
+        granted.forEach(w -> w.onGrant.accept(w.permit));
+        return waiter;
+    }
+
+    /**
+     * Withdraw a waiter whose caller gave up, returning its slot if one was already granted.
+     */
+    private void cancel(Waiter waiter) {
+        Permit granted;
+        synchronized (lock) {
+            queues.get(waiter.lane.ordinal()).remove(waiter);
+            granted = waiter.permit;
+        }
+        if (granted != null) {
+            granted.release();
+        }
+    }
+
+    /**
+     * Grant free slots to waiters, higher priority lanes first. A lane at its own limit does not
+     * hold back lower lanes. Must be called holding the lock; the returned waiters are notified
+     * after it is released.
+     */
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = new ArrayList<>();
+        for (Lane lane : Lane.values()) {
+            Deque<Waiter> queue = queues.get(lane.ordinal());
+            int laneMax = limits.get(lane).maxConcurrent();
+            while (inFlight < maxConcurrent && laneInFlight[lane.ordinal()] < laneMax && !queue.isEmpty()) {
+                Waiter waiter = queue.pollFirst();
+                waiter.permit = new Permit(lane);
+                inFlight++;
+                laneInFlight[lane.ordinal()]++;
+                granted.add(waiter);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Record a failed call on the target's circuit. Timeouts, connection errors and 5xx responses
+     * count as failures. Throttling is ignored, since the caller backs off as the service asks;
+     * other client errors mean the service answered, so they count as a successful round trip.
+     * Anything else (e.g. an unparseable body) says nothing about the service and is ignored.
+     */
+    private void record(CircuitBreaker breaker, String target, Throwable ex) {
+        int status = ex instanceof WebClientResponseException wcre ? wcre.getStatusCode().value()
+                : ex instanceof RetryableStatusException rse ? rse.status() : -1;
+        boolean unhealthy = status >= 500 || status == 408
+                || ex instanceof TimeoutException || ex instanceof WebClientRequestException;
+        if (!unhealthy) {
+            if (status >= 400 && status != 429) {
+                breaker.onSuccess();
+            } else {
+                breaker.onIgnored();
+            }
+            return;
+        }
+        CircuitBreaker.State before = breaker.state();
+        breaker.onFailure();
+        if (before != CircuitBreaker.State.OPEN && breaker.state() == CircuitBreaker.State.OPEN) {
+            log.warn("LLM circuit for {} opened for {} s after failure: {}", target, openDuration.toSeconds(), ex.toString());
+        }
+    }
+
+    private CircuitBreaker breaker(String target) {
+        return breakers.computeIfAbsent(target, t -> {
+            CircuitBreaker breaker = new CircuitBreaker(failureThreshold, openDuration);
+            meterRegistry.gauge("llm.gateway.circuit", Tags.of("target", t), breaker, b -> b.state().ordinal());
+            return breaker;
+        });
+    }
+
+    private int inFlight(Lane lane) {
+        synchronized (lock) {
+            return laneInFlight[lane.ordinal()];
+        }
+    }
+
+    private int queued(Lane lane) {
+        synchronized (lock) {
+            return queues.get(lane.ordinal()).size();
+        }
+    }
+}
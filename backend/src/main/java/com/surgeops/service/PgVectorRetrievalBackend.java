@@ -0,0 +1,29 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.KbChunk;
+import com.surgeops.repo.KbChunkRepository;
+import com.surgeops.repo.KbChunkRepositoryCustom.SearchParams;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Retrieval backend searching the kb_chunks vector index in Postgres.
+ */
+@Service
+@ConditionalOnProperty(name = "app.rag.backend", havingValue = "pgvector", matchIfMissing = true)
+public class PgVectorRetrievalBackend implements VectorRetrievalBackend {
+
+    private final KbChunkRepository kbChunkRepository;
+
+    public PgVectorRetrievalBackend(KbChunkRepository kbChunkRepository) {
+        this.kbChunkRepository = kbChunkRepository;
+    }
+
+    @Override
+    public List<KbChunk> findNearest(float[] embedding, int limit, Collection<String> kinds) {
+        return kbChunkRepository.findNearest(embedding, limit, SearchParams.DEFAULTS, kinds);
+    }
+}
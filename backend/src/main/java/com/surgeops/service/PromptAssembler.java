@@ -0,0 +1,265 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.KbChunk;
+import com.surgeops.service.ConversationMemoryService.History;
+import com.surgeops.service.ConversationMemoryService.Turn;
+import com.surgeops.service.DbGroundingService.Section;
+import com.surgeops.util.TokenCounter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Service assembling chat prompts from DB grounding sections and knowledge base chunks within a
+ * token budget, counted locally with {@link TokenCounter}.
+ *
+ * <p>Chunks that repeat what the facts already say (e.g. a vessel chunk for a vessel listed among
+ * the upcoming arrivals) are dropped: a chunk counts as a duplicate when at least the configured
+ * share of its terms appear in the facts. The facts come straight from the database, so they win.
+ * The remaining items are ranked by the share of the question's terms they contain plus a prior:
+ * a flat one for fact sections, one decaying with retrieval rank for chunks. They are packed
+ * greedily in that order; a fact section that does not fit whole contributes as many of its lines
+ * as fit. Included items keep their natural order in the prompt (sections, then chunks by rank).
+ *
+ * <p>Conversation history, if any, goes between the system prompt and the question: the rolling
+ * summary, then as many of the most recent turns as fit its own share of the budget.
+ *
+ * <p>The system prompt and the question are counted against the budget first. A question too long
+ * to fit is cut to what does (requests are also size-limited), and history only gets what is left,
+ * so the assembled prompt never exceeds the budget unless the system prompt alone does.
+ *
+ * <p>Token counts are logged per request and recorded in {@code chat.prompt.tokens}.
+ */
+@Service
+public class PromptAssembler {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptAssembler.class);
+    private static final Pattern TERM = Pattern.compile("[^\\p{L}\\p{N}.%]+");
+    private static final double FACT_PRIOR = 0.5;
+
+    /**
+     * Assembled prompt with its token accounting.
+     *
+     * @param tokens            estimated prompt tokens, including message framing
+     * @param duplicatesDropped chunks dropped as repeats of the facts
+     * @param overBudgetDropped sections, lines or chunks that did not fit the budget
+     */
+    public record Prompt(List<Map<String, String>> messages,
+                         int tokens,
+                         int budget,
+                         int historyTokens,
+                         int factTokens,
+                         int chunkTokens,
+                         int duplicatesDropped,
+                         int overBudgetDropped) {}
+
+    private record Item(int order, String text, double score, boolean fact) {}
+
+    private final int maxTokens;
+    private final int historyMaxTokens;
+    private final double duplicateThreshold;
+    private final DistributionSummary promptTokens;
+
+    public PromptAssembler(MeterRegistry meterRegistry,
+                           @Value("${app.chat.prompt.max-tokens:3000}") int maxTokens,
+                           @Value("${app.chat.prompt.history-max-tokens:800}") int historyMaxTokens,
+                           @Value("${app.chat.prompt.duplicate-threshold:0.8}") double duplicateThreshold) {
+        this.maxTokens = maxTokens;
+        this.historyMaxTokens = historyMaxTokens;
+        this.duplicateThreshold = duplicateThreshold;
+        this.promptTokens = DistributionSummary.builder("chat.prompt.tokens")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Build the messages for a question, packing history, facts and chunks into the budget. The
+     * system prompt and the question are always included, the question truncated if it does not fit.
+     */
+    public Prompt assemble(String systemPrompt, String question, List<Section> facts, List<KbChunk> chunks,
+                           History history) {
+        Set<String> questionTerms = terms(question);
+        Set<String> factTerms = new HashSet<>();
+        facts.forEach(section -> factTerms.addAll(terms(section.text())));
+
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < facts.size(); i++) {
+            String text = facts.get(i).text();
+            items.add(new Item(i, text, overlap(questionTerms, terms(text)) + FACT_PRIOR, true));
+        }
+        int duplicates = 0;
+        for (int rank = 0; rank < chunks.size(); rank++) {
+            KbChunk chunk = chunks.get(rank);
+            Set<String> chunkTerms = terms(chunk.getContent());
+            if (!factTerms.isEmpty() && overlap(chunkTerms, factTerms) >= duplicateThreshold) {
+                duplicates++;
+                continue;
+            }
+            String text = "- " + chunk.getTitle() + ": " + chunk.getContent() + "\n";
+            items.add(new Item(facts.size() + rank, text,
+                    overlap(questionTerms, chunkTerms) + FACT_PRIOR / (rank + 1), false));
+        }
+
+        String questionPrefix = "Question: ";
+        int framing = TokenCounter.countMessage(systemPrompt) + TokenCounter.countMessage(questionPrefix)
+                + TokenCounter.count("Operational facts:\nKnowledge base excerpts:\n") + 3;
+        String questionLine = questionPrefix + TokenCounter.truncate(question, Math.max(0, maxTokens - framing));
+        if (questionLine.length() < questionPrefix.length() + question.length()) {
+            log.warn("Question of {} tokens truncated to fit the prompt budget of {}", TokenCounter.count(question), maxTokens);
+        }
+        int fixed = framing + TokenCounter.count(questionLine) - TokenCounter.count(questionPrefix);
+        List<Map<String, String>> historyMessages = historyMessages(history, Math.min(historyMaxTokens, maxTokens - fixed));
+        int historyTokens = historyMessages.stream().mapToInt(m -> TokenCounter.countMessage(m.get("content"))).sum();
+        int remaining = maxTokens - fixed - historyTokens;
+        int factTokens = 0;
+        int chunkTokens = 0;
+        int overBudget = 0;
+        List<Item> ranked = new ArrayList<>(items);
+        // List.sort is stable, so equal scores keep their natural order
+        ranked.sort(Comparator.comparingDouble(Item::score).reversed());
+        SortedMap<Integer, Item> included = new TreeMap<>();
+        for (Item item : ranked) {
+            int tokens = TokenCounter.count(item.text());
+            Item packed = item;
+            if (tokens > remaining && item.fact()) {
+                packed = truncateLines(item, remaining);
+                tokens = packed != null ? TokenCounter.count(packed.text()) : 0;
+            }
+            if (packed == null || tokens > remaining) {
+                overBudget++;
+                continue;
+            }
+            if (packed != item) {
+                overBudget++;
+            }
+            included.put(packed.order(), packed);
+            remaining -= tokens;
+            if (packed.fact()) {
+                factTokens += tokens;
+            } else {
+                chunkTokens += tokens;
+            }
+        }
+
+        StringBuilder user = new StringBuilder();
+        boolean chunksStarted = false;
+        for (Item item : included.values()) {
+            if (item.fact() && user.isEmpty()) {
+                user.append("Operational facts:\n");
+            } else if (!item.fact() && !chunksStarted) {
+                user.append("Knowledge base excerpts:\n");
+                chunksStarted = true;
+            }
+            user.append(item.text());
+        }
+        user.append(questionLine);
+        List<Map<String, String>> messages = new ArrayList<>(historyMessages.size() + 2);
+        messages.add(Map.of("role", "system", "content", systemPrompt));
+        messages.addAll(historyMessages);
+        messages.add(Map.of("role", "user", "content", user.toString()));
+        int total = maxTokens - remaining;
+        promptTokens.record(total);
+        log.info("Prompt {} tokens of {} (history {}, facts {}, chunks {}, fixed {}); dropped {} duplicate and {} over-budget items",
+                total, maxTokens, historyTokens, factTokens, chunkTokens, fixed, duplicates, overBudget);
+        return new Prompt(List.copyOf(messages), total, maxTokens, historyTokens, factTokens, chunkTokens,
+                duplicates, overBudget);
+    }
+
+    /**
+     * History as chat messages within the given budget: the summary first, then the most recent
+     * turns that fit, oldest first.
+     */
+    private List<Map<String, String>> historyMessages(History history, int budget) {
+        if (history == null || history.isEmpty()) {
+            return List.of();
+        }
+        int remaining = budget;
+        Map<String, String> summary = null;
+        if (!history.summary().isEmpty()) {
+            String content = "Summary of the conversation so far: " + history.summary();
+            int tokens = TokenCounter.countMessage(content);
+            if (tokens <= remaining) {
+                summary = Map.of("role", "system", "content", content);
+                remaining -= tokens;
+            }
+        }
+        Deque<Map<String, String>> turns = new ArrayDeque<>();
+        List<Turn> all = history.turns();
+        for (int i = all.size() - 1; i >= 0; i--) {
+            Turn turn = all.get(i);
+            int tokens = TokenCounter.countMessage(turn.question()) + TokenCounter.countMessage(turn.answer());
+            if (tokens > remaining) {
+                break;
+            }
+            turns.addFirst(Map.of("role", "assistant", "content", turn.answer()));
+            turns.addFirst(Map.of("role", "user", "content", turn.question()));
+            remaining -= tokens;
+        }
+        List<Map<String, String>> messages = new ArrayList<>(turns.size() + 1);
+        if (summary != null) {
+            messages.add(summary);
+        }
+        messages.addAll(turns);
+        return messages;
+    }
+
+    /**
+     * Keep the leading lines of a fact section (its heading first) that fit the remaining tokens,
+     * or null if not even the first two lines fit.
+     */
+    private static Item truncateLines(Item item, int remaining) {
+        String[] lines = item.text().split("\n");
+        StringBuilder sb = new StringBuilder();
+        int tokens = 0;
+        int kept = 0;
+        for (String line : lines) {
+            int lineTokens = TokenCounter.count(line + "\n");
+            if (tokens + lineTokens > remaining) {
+                break;
+            }
+            sb.append(line).append('\n');
+            tokens += lineTokens;
+            kept++;
+        }
+        return kept >= Math.min(2, lines.length) ? new Item(item.order(), sb.toString(), item.score(), true) : null;
+    }
+
+    /**
+     * Share of the terms in {@code of} that also appear in {@code in}.
+     */
+    private static double overlap(Set<String> of, Set<String> in) {
+        if (of.isEmpty()) {
+            return 0;
+        }
+        int shared = 0;
+        for (String term : of) {
+            if (in.contains(term)) {
+                shared++;
+            }
+        }
+        return (double) shared / of.size();
+    }
+
+    /**
+     * Distinct lower-case words and numbers of the text, ignoring one-letter words and trailing dots.
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String raw : TERM.split(text.toLowerCase(Locale.ROOT))) {
+            String term = raw.endsWith(".") ? raw.substring(0, raw.length() - 1) : raw;
+            if (term.length() > 1 || (!term.isEmpty() && Character.isDigit(term.charAt(0)))) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
@@ -1,31 +1,88 @@
 package com.surgeops.service;
 
 import com.surgeops.entity.KbChunk;
+import com.surgeops.event.KbChangedEvent;
 import com.surgeops.repo.KbChunkRepository;
+import com.surgeops.util.WeightedTtlCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.*;
+import java.util.regex.Pattern;
 
 /**
- * Service responsible for vector retrieval from the knowledge base using pgvector. It embeds
- * queries via Azure OpenAI and queries the kb_chunks table for nearest neighbours.
+ * Service responsible for retrieval from the knowledge base. Vector retrieval embeds queries via
+ * Azure OpenAI and finds nearest neighbours through the configured {@link VectorRetrievalBackend}
+ * (pgvector or in-process). Hybrid retrieval additionally runs a full-text search, which catches
+ * exact codes such as berth, block or IMO numbers, concurrently with the vector search and merges
+ * both rankings with reciprocal rank fusion. The lexical half needs no LLM, so hybrid retrieval still works without Azure.
+ *
+ * <p>Query embeddings are cached by normalised query text, bounded by their size in bytes and
+ * expired after a TTL, so repeated questions skip the embeddings call. Nearest-neighbour results
+ * are cached as well and dropped whenever the knowledge base changes, so a repeated question
+ * against an unchanged KB also skips the vector search.
  */
 @Service
 public class RagService {
 
+    private static final Logger log = LoggerFactory.getLogger(RagService.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\p{Punct}\\s]+$");
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("[\\s,;:!?()\\[\\]\"']+");
+
+    private record ResultKey(String query, int k, boolean hybrid, Set<String> kinds) {}
+
     private final KbChunkRepository kbChunkRepository;
+    private final VectorRetrievalBackend vectorBackend;
     private final AzureOpenAiService azureOpenAiService;
+    private final KbGenerationService kbGenerationService;
     private final int embeddingDim;
+    private final int hybridCandidates;
+    private final int rrfK;
+    private final WeightedTtlCache<String, float[]> queryEmbeddings;
+    private final WeightedTtlCache<ResultKey, List<KbChunk>> results;
+    private final Counter embeddingHits;
+    private final Counter embeddingMisses;
+    private final Counter resultHits;
+    private final Counter resultMisses;
 
     public RagService(KbChunkRepository kbChunkRepository,
+                      VectorRetrievalBackend vectorBackend,
                       AzureOpenAiService azureOpenAiService,
-                      @Value("${azure.openai.embedding-dim:1536}") int embeddingDim) {
+                      KbGenerationService kbGenerationService,
+                      MeterRegistry meterRegistry,
+                      @Value("${azure.openai.embedding-dim:1536}") int embeddingDim,
+                      @Value("${app.rag.query-cache.max-bytes:16777216}") long queryCacheMaxBytes,
+                      @Value("${app.rag.query-cache.ttl-minutes:60}") long queryCacheTtlMinutes,
+                      @Value("${app.rag.result-cache.max-entries:1000}") long resultCacheMaxEntries,
+                      @Value("${app.rag.result-cache.ttl-minutes:10}") long resultCacheTtlMinutes,
+                      @Value("${app.rag.hybrid.candidates:20}") int hybridCandidates,
+                      @Value("${app.rag.hybrid.rrf-k:60}") int rrfK) {
         this.kbChunkRepository = kbChunkRepository;
+        this.vectorBackend = vectorBackend;
         this.azureOpenAiService = azureOpenAiService;
+        this.kbGenerationService = kbGenerationService;
         this.embeddingDim = embeddingDim;
+        this.hybridCandidates = hybridCandidates;
+        this.rrfK = rrfK;
+        // Array header plus four bytes per dimension
+        this.queryEmbeddings = new WeightedTtlCache<>(queryCacheMaxBytes,
+                Duration.ofMinutes(queryCacheTtlMinutes), vec -> 16L + 4L * vec.length);
+        this.results = new WeightedTtlCache<>(resultCacheMaxEntries,
+                Duration.ofMinutes(resultCacheTtlMinutes), chunks -> 1L);
+        this.embeddingHits = meterRegistry.counter("rag.query.embedding.cache", "result", "hit");
+        this.embeddingMisses = meterRegistry.counter("rag.query.embedding.cache", "result", "miss");
+        this.resultHits = meterRegistry.counter("rag.query.result.cache", "result", "hit");
+        this.resultMisses = meterRegistry.counter("rag.query.result.cache", "result", "miss");
     }
 
     /**
@@ -37,31 +94,162 @@ public class RagService {
      * @return list of similar chunks (may be empty)
      */
     public List<KbChunk> retrieveSimilarChunks(String query, int k) {
-        if (!azureOpenAiService.isConfigured()) {
+        if (!azureOpenAiService.isConfigured() || query == null) {
             return List.of();
         }
-        List<float[]> embeddings = azureOpenAiService.embed(List.of(query));
-        if (embeddings.isEmpty()) {
+        String normalised = normalise(query);
+        ResultKey resultKey = new ResultKey(normalised, k, false, Set.of());
+        List<KbChunk> cached = results.get(resultKey);
+        if (cached != null) {
+            resultHits.increment();
+            return cached;
+        }
+        resultMisses.increment();
+
+        long version = kbGenerationService.version();
+        float[] vector = embedQuery(normalised);
+        if (vector == null) {
             return List.of();
         }
+        List<KbChunk> nearest = List.copyOf(vectorBackend.findNearest(vector, k, null));
+        // Skip caching if the KB changed while searching; the result may already be outdated
+        if (kbGenerationService.version() == version) {
+            results.put(resultKey, nearest);
+        }
+        return nearest;
+    }
 
-        float[] vector = embeddings.get(0);
+    /**
+     * Retrieve the top k chunks for the query by hybrid lexical and vector search, fused with
+     * reciprocal rank fusion. Without Azure OpenAI, or if the vector search fails, the lexical
+     * ranking is used alone.
+     *
+     * @param kinds chunk kinds to search (null or empty for all)
+     */
+    public List<KbChunk> retrieve(String query, int k, Collection<String> kinds) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+        String normalised = normalise(query);
+        Set<String> kindSet = kinds != null ? Set.copyOf(kinds) : Set.of();
+        ResultKey resultKey = new ResultKey(normalised, k, true, kindSet);
+        List<KbChunk> cached = results.get(resultKey);
+        if (cached != null) {
+            resultHits.increment();
+            return cached;
+        }
+        resultMisses.increment();
 
-        // Truncate or pad to exactly embeddingDim
-        float[] fixed = new float[embeddingDim];
-        int copyLen = Math.min(vector.length, embeddingDim);
-        System.arraycopy(vector, 0, fixed, 0, copyLen);
-        // remaining entries are already 0.0f by default
+        long version = kbGenerationService.version();
+        int candidates = Math.max(k, hybridCandidates);
+        Mono<List<KbChunk>> lexical = Mono.fromCallable(() -> kbChunkRepository.findLexical(terms(normalised), candidates, kindSet))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(ex -> {
+                    log.warn("Lexical KB search failed", ex);
+                    return Mono.just(List.of());
+                });
+        Mono<List<KbChunk>> vector = !azureOpenAiService.isConfigured()
+                ? Mono.just(List.of())
+                : Mono.fromCallable(() -> {
+                            float[] embedding = embedQuery(normalised);
+                            return embedding == null ? List.<KbChunk>of()
+                                    : vectorBackend.findNearest(embedding, candidates, kindSet);
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .onErrorResume(ex -> {
+                            log.warn("Vector KB search failed; using lexical results only", ex);
+                            return Mono.just(List.of());
+                        });
+        List<KbChunk> fused = Mono.zip(lexical, vector)
+                .map(t -> reciprocalRankFusion(List.of(t.getT1(), t.getT2()), k, rrfK))
+                .block();
+        List<KbChunk> result = fused != null ? List.copyOf(fused) : List.of();
+        if (kbGenerationService.version() == version) {
+            results.put(resultKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Merge rankings by reciprocal rank fusion: each chunk scores the sum of 1 / (rrfK + rank) over
+     * the rankings it appears in (rank starting at 1). Ties keep first-seen order.
+     */
+    static List<KbChunk> reciprocalRankFusion(List<List<KbChunk>> rankings, int k, int rrfK) {
+        Map<UUID, KbChunk> chunks = new LinkedHashMap<>();
+        Map<UUID, Double> scores = new HashMap<>();
+        for (List<KbChunk> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                KbChunk chunk = ranking.get(rank);
+                chunks.putIfAbsent(chunk.getId(), chunk);
+                scores.merge(chunk.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        List<UUID> order = new ArrayList<>(chunks.keySet());
+        // List.sort is stable, so equal scores stay in first-seen order
+        order.sort(Comparator.comparingDouble((UUID id) -> scores.get(id)).reversed());
+        return order.stream().limit(k).map(chunks::get).toList();
+    }
 
-        String literal = toVectorLiteral(fixed);
-        return kbChunkRepository.findNearest(literal, k);
+    /**
+     * Split a normalised query into full-text search terms.
+     */
+    static List<String> terms(String normalised) {
+        return Arrays.stream(TERM_SEPARATOR.split(normalised))
+                .filter(term -> !term.isBlank())
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Drop cached search results once the knowledge base has changed. Query embeddings stay valid.
+     */
+    @EventListener
+    public void onKbChanged(KbChangedEvent event) {
+        results.clear();
+    }
+
+    /**
+     * Embedding of a query as used for retrieval, or null if the LLM is not configured or the
+     * query is blank. Served from the query embedding cache when possible.
+     */
+    public float[] queryEmbedding(String query) {
+        if (!azureOpenAiService.isConfigured() || query == null || query.isBlank()) {
+            return null;
+        }
+        return embedQuery(normalise(query));
     }
 
-    // Build a pgvector literal like: [0.12,0.34,...]
-    private String toVectorLiteral(float[] vec) {
-        String csv = IntStream.range(0, vec.length)
-                .mapToObj(i -> Float.toString(vec[i]))
-                .collect(Collectors.joining(","));
-        return "[" + csv + "]";
+    /**
+     * Return the embedding of the normalised query, truncated or zero-padded to exactly embeddingDim,
+     * from cache when the same text was embedded recently. The normalised text is what gets
+     * embedded, so a cached vector is exactly what a fresh call would return.
+     */
+    private float[] embedQuery(String normalised) {
+        float[] cached = queryEmbeddings.get(normalised);
+        if (cached != null) {
+            embeddingHits.increment();
+            return cached;
+        }
+        embeddingMisses.increment();
+        List<float[]> embeddings = azureOpenAiService.embed(LlmGateway.Lane.CHAT, List.of(normalised));
+        if (embeddings.isEmpty()) {
+            return null;
+        }
+        float[] vector = embeddings.get(0);
+        float[] fixed = new float[embeddingDim];
+        System.arraycopy(vector, 0, fixed, 0, Math.min(vector.length, embeddingDim));
+        queryEmbeddings.put(normalised, fixed);
+        return fixed;
+    }
+
+    /**
+     * Normalise a query for cache lookups: Unicode compatibility form, lower case, collapsed
+     * whitespace and no trailing punctuation, so "What is the yard status?" and
+     * "what is the  yard status" share an entry.
+     */
+    static String normalise(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        text = WHITESPACE.matcher(text.trim()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(text).replaceAll("");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+package com.surgeops.service;
+
+import com.surgeops.util.VectorMath;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of chat answers keyed by the embedding of the question. A new question is answered from
+ * the cache when a cached question's embedding has cosine similarity of at least the threshold,
+ * so near-identical phrasings ("which block is fullest?" / "which yard block is the fullest")
+ * share an answer.
+ *
+ * <p>Answers are scoped to the state they were grounded on: the grounding state version and the
+ * knowledge base version. Any committed change to yard, vessel, berth, alert or weather data, or to
+ * the knowledge base, makes every cached answer stale. Entries also expire after a TTL, since some
+ * facts (upcoming arrivals, TEU over the last 24h) move with the clock alone.
+ *
+ * <p>Hits and misses are counted in {@code chat.semantic-cache}; for each hit the latency of the
+ * request that originally produced the answer is recorded in {@code chat.semantic-cache.saved}.
+ */
+@Service
+public class SemanticResponseCache {
+
+    /**
+     * State an answer was grounded on.
+     */
+    public record Scope(long groundingVersion, long kbVersion) {}
+
+    private record Entry(float[] embedding, String answer, Scope scope, long latencyNanos, long expiresAtNanos) {}
+
+    private final GroundingStateService groundingStateService;
+    private final KbGenerationService kbGenerationService;
+    private final boolean enabled;
+    private final double threshold;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer saved;
+
+    public SemanticResponseCache(GroundingStateService groundingStateService,
+                                 KbGenerationService kbGenerationService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.chat.semantic-cache.enabled:true}") boolean enabled,
+                                 @Value("${app.chat.semantic-cache.similarity-threshold:0.95}") double threshold,
+                                 @Value("${app.chat.semantic-cache.max-entries:500}") int maxEntries,
+                                 @Value("${app.chat.semantic-cache.ttl-minutes:10}") long ttlMinutes) {
+        this.groundingStateService = groundingStateService;
+        this.kbGenerationService = kbGenerationService;
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = Duration.ofMinutes(ttlMinutes).toNanos();
+        this.hits = meterRegistry.counter("chat.semantic-cache", "result", "hit");
+        this.misses = meterRegistry.counter("chat.semantic-cache", "result", "miss");
+        this.saved = meterRegistry.timer("chat.semantic-cache.saved");
+        meterRegistry.gauge("chat.semantic-cache.size", entries, Deque::size);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Current grounding scope; capture it before grounding and pass it to {@link #put}.
+     */
+    public Scope scope() {
+        return new Scope(groundingStateService.version(), kbGenerationService.version());
+    }
+
+    /**
+     * Return the cached answer to the most similar question at or above the threshold, or null.
+     *
+     * @param embedding question embedding (any length; compared by cosine similarity)
+     */
+    public String get(float[] embedding) {
+        if (!enabled || embedding == null) {
+            return null;
+        }
+        float[] query = unit(embedding);
+        Scope current = scope();
+        long now = System.nanoTime();
+        Entry best = null;
+        float bestSim = (float) threshold;
+        synchronized (entries) {
+            Iterator<Entry> it = entries.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (!entry.scope().equals(current) || now - entry.expiresAtNanos() > 0) {
+                    it.remove();
+                    continue;
+                }
+                if (entry.embedding().length != query.length) {
+                    continue;
+                }
+                float sim = VectorMath.dot(query, entry.embedding(), 0);
+                if (sim >= bestSim) {
+                    bestSim = sim;
+                    best = entry;
+                }
+            }
+        }
+        if (best == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        saved.record(best.latencyNanos(), TimeUnit.NANOSECONDS);
+        return best.answer();
+    }
+
+    /**
+     * Cache an answer unless the state changed since it was grounded.
+     *
+     * @param scope        scope captured before grounding
+     * @param latencyNanos time it took to produce the answer
+     */
+    public void put(float[] embedding, String answer, Scope scope, long latencyNanos) {
+        if (!enabled || embedding == null || answer == null || !scope.equals(scope())) {
+            return;
+        }
+        Entry entry = new Entry(unit(embedding), answer, scope, latencyNanos, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.addLast(entry);
+            while (entries.size() > maxEntries) {
+                entries.removeFirst();
+            }
+        }
+    }
+
+    private static float[] unit(float[] embedding) {
+        float[] unit = new float[embedding.length];
+        VectorMath.normaliseInto(embedding, unit, 0, embedding.length);
+        return unit;
+    }
+}
@@ -2,9 +2,11 @@ package com.surgeops.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.surgeops.entity.*;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.*;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -20,11 +22,13 @@ import java.util.stream.Collectors;
 public class SurgeDetectionService {
 
     private final VesselRepository vesselRepository;
+    private final ArrivalRollupRepository arrivalRollupRepository;
     private final YardBlockRepository yardBlockRepository;
     private final SurgeRepository surgeRepository;
     private final AlertRepository alertRepository;
     private final EventRepository eventRepository;
     private final ActionPlanService actionPlanService;
+    private final ApplicationEventPublisher eventPublisher;
     private final ObjectMapper objectMapper;
 
     // Rule thresholds configurable via environment
@@ -34,21 +38,25 @@ public class SurgeDetectionService {
     private final int minWaitingVessels;
 
     public SurgeDetectionService(VesselRepository vesselRepository,
+                                ArrivalRollupRepository arrivalRollupRepository,
                                 YardBlockRepository yardBlockRepository,
                                 SurgeRepository surgeRepository,
                                 AlertRepository alertRepository,
                                 EventRepository eventRepository,
                                 ActionPlanService actionPlanService,
+                                ApplicationEventPublisher eventPublisher,
                                 @Value("${app.surge.arrivals.factor:1.5}") double arrivalsFactor,
                                 @Value("${app.surge.projectedTeu.factor:1.4}") double projectedTeuFactor,
                                 @Value("${app.surge.yardUtil.threshold:88.0}") double yardUtilThreshold,
                                 @Value("${app.surge.minWaitingVessels:2}") int minWaitingVessels) {
         this.vesselRepository = vesselRepository;
+        this.arrivalRollupRepository = arrivalRollupRepository;
         this.yardBlockRepository = yardBlockRepository;
         this.surgeRepository = surgeRepository;
         this.alertRepository = alertRepository;
         this.eventRepository = eventRepository;
         this.actionPlanService = actionPlanService;
+        this.eventPublisher = eventPublisher;
         this.arrivalsFactor = arrivalsFactor;
         this.projectedTeuFactor = projectedTeuFactor;
         this.yardUtilThreshold = yardUtilThreshold;
@@ -65,18 +73,19 @@ public class SurgeDetectionService {
         // Compute arrivals in next 6h and baseline past 6h
         Instant sixHoursAhead = now.plus(6, ChronoUnit.HOURS);
         Instant twelveHoursAhead = now.plus(12, ChronoUnit.HOURS);
-        Instant sixHoursAgo = now.minus(6, ChronoUnit.HOURS);
-        Instant twelveHoursAgo = now.minus(12, ChronoUnit.HOURS);
+        // Baselines come from the hourly rollup and cover the last complete hours
+        Instant currentHour = now.truncatedTo(ChronoUnit.HOURS);
+        Instant sixHoursAgo = currentHour.minus(6, ChronoUnit.HOURS);
+        Instant twelveHoursAgo = currentHour.minus(12, ChronoUnit.HOURS);
 
         List<Vessel> upcoming6 = vesselRepository.findByEtaBetweenOrderByEtaAsc(now, sixHoursAhead);
-        List<Vessel> past6 = vesselRepository.findByEtaBetweenOrderByEtaAsc(sixHoursAgo, now);
+        long past6 = arrivalRollupRepository.sumArrivals(sixHoursAgo, currentHour);
         int arrivalsNext6h = upcoming6.size();
-        int baseline6h = past6.size() > 0 ? past6.size() : 1;
+        int baseline6h = past6 > 0 ? (int) past6 : 1;
 
         List<Vessel> upcoming12 = vesselRepository.findByEtaBetweenOrderByEtaAsc(now, twelveHoursAhead);
-        List<Vessel> past12 = vesselRepository.findByEtaBetweenOrderByEtaAsc(twelveHoursAgo, now);
         int projectedTeuNext12h = upcoming12.stream().mapToInt(v -> v.getExpectedTeu() != null ? v.getExpectedTeu() : 0).sum();
-        int baselineTeu12h = past12.stream().mapToInt(v -> v.getExpectedTeu() != null ? v.getExpectedTeu() : 0).sum();
+        int baselineTeu12h = (int) arrivalRollupRepository.sumProjectedTeu(twelveHoursAgo, currentHour);
         if (baselineTeu12h == 0) baselineTeu12h = 1;
 
         // Yard average utilisation
@@ -151,6 +160,7 @@ public class SurgeDetectionService {
                 .suggestionTeu(suggestionTeu)
                 .build();
         alertRepository.save(alert);
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.ALERT, alert.getAlertId().toString()));
         // Create event
         Event event = Event.builder()
                 .eventId(UUID.randomUUID())
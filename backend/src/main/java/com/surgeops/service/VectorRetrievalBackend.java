@@ -0,0 +1,23 @@
+package com.surgeops.service;
+
+import com.surgeops.entity.KbChunk;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Nearest-neighbour search over knowledge base embeddings. {@link RagService} uses whichever
+ * implementation is selected by {@code app.rag.backend}: {@code pgvector} (default) searches the
+ * kb_chunks index in Postgres, {@code memory} searches an in-process copy of the vectors.
+ */
+public interface VectorRetrievalBackend {
+
+    /**
+     * Return the chunks whose embeddings are most similar (by cosine) to the query, best first.
+     * Returned chunks do not carry their embeddings.
+     *
+     * @param embedding query vector of the configured dimension
+     * @param kinds     chunk kinds to search (null or empty for all)
+     */
+    List<KbChunk> findNearest(float[] embedding, int limit, Collection<String> kinds);
+}
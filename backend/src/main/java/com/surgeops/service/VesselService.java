@@ -4,8 +4,10 @@ import com.surgeops.dto.VesselDto;
 import com.surgeops.dto.VesselUpsertRequest;
 import com.surgeops.entity.Vessel;
 import com.surgeops.entity.VesselStatus;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.VesselRepository;
 import jakarta.transaction.Transactional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -14,22 +16,32 @@ import java.util.Optional;
 import java.util.UUID;
 
 /**
- * Service for creating and updating vessels. Triggers surge detection after persisting changes.
+ * Service for creating and updating vessels. Keeps the hourly arrival rollup in step with ETA and
+ * TEU changes and triggers surge detection after persisting changes.
  */
 @Service
 public class VesselService {
 
     private final VesselRepository vesselRepository;
     private final SurgeDetectionService surgeDetectionService;
+    private final ArrivalRollupService arrivalRollupService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public VesselService(VesselRepository vesselRepository, SurgeDetectionService surgeDetectionService) {
+    public VesselService(VesselRepository vesselRepository,
+                         SurgeDetectionService surgeDetectionService,
+                         ArrivalRollupService arrivalRollupService,
+                         ApplicationEventPublisher eventPublisher) {
         this.vesselRepository = vesselRepository;
         this.surgeDetectionService = surgeDetectionService;
+        this.arrivalRollupService = arrivalRollupService;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
      * Insert or update a vessel record. If the vessel has no ID but an IMO or name matches an existing record,
-     * that record is updated. Otherwise a new vessel is created. After commit, surge detection runs.
+     * that record is updated. Otherwise a new vessel is created. An existing vessel is locked until
+     * commit, so concurrent upserts of it apply their rollup deltas one after the other. After
+     * commit, surge detection runs.
      *
      * @param req upsert request
      * @return VesselDto of the persisted vessel
@@ -38,15 +50,17 @@ public class VesselService {
     public VesselDto upsert(VesselUpsertRequest req) {
         Vessel vessel;
         if (req.getVesselId() != null) {
-            vessel = vesselRepository.findById(req.getVesselId()).orElse(new Vessel());
+            vessel = vesselRepository.findByIdForUpdate(req.getVesselId()).orElse(new Vessel());
         } else if (req.getImo() != null && !req.getImo().isBlank()) {
-            vessel = vesselRepository.findByImo(req.getImo()).orElse(new Vessel());
+            vessel = vesselRepository.findByImoForUpdate(req.getImo()).orElse(new Vessel());
         } else {
-            vessel = vesselRepository.findByName(req.getName()).orElse(new Vessel());
+            vessel = vesselRepository.findByNameForUpdate(req.getName()).orElse(new Vessel());
         }
         if (vessel.getVesselId() == null) {
             vessel.setVesselId(UUID.randomUUID());
         }
+        Instant previousEta = vessel.getEta();
+        Integer previousTeu = vessel.getExpectedTeu();
         vessel.setName(req.getName());
         vessel.setImo(req.getImo());
         vessel.setExpectedTeu(req.getExpectedTeu());
@@ -62,6 +76,8 @@ public class VesselService {
             vessel.setStatus(null);
         }
         vesselRepository.save(vessel);
+        arrivalRollupService.recordChange(previousEta, previousTeu, vessel.getEta(), vessel.getExpectedTeu());
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.VESSEL, vessel.getVesselId().toString()));
         // After commit, run surge detection
         surgeDetectionService.evaluateAndHandle();
         return toDto(vessel);
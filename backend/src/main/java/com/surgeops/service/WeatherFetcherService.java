@@ -5,65 +5,248 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.surgeops.dto.WeatherDto;
 import com.surgeops.entity.OperationalImpact;
 import com.surgeops.entity.WeatherObservation;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.WeatherObservationRepository;
 import com.surgeops.util.WeatherCodeMapper;
-import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Service for retrieving weather observations either from cache or by calling
- * the Open-Meteo API. Weather data is cached in the database for a configurable
- * number of minutes.
+ * the Open-Meteo API. The latest observation per location is held in memory and
+ * considered fresh for a configurable number of minutes. Slightly stale entries
+ * are served immediately while a background refresh runs; concurrent misses for
+ * the same location share a single provider call. Geocoding results never change
+ * for a port name and are memoised for the lifetime of the process. The configured
+ * ports are refreshed together on a schedule with a single multi-location forecast
+ * call, so port requests normally hit a warm cache.
  */
 @Service
 public class WeatherFetcherService {
 
+    private record GeoPoint(double latitude, double longitude) {}
+
+    private record Port(String location, GeoPoint point) {}
+
+    private static final Logger log = LoggerFactory.getLogger(WeatherFetcherService.class);
+
     private final WeatherObservationRepository weatherObservationRepository;
-    private final WebClient.Builder webClientBuilder;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WebClient webClient;
     private final ObjectMapper objectMapper;
 
     private final String provider;
     private final long recencyMinutes;
+    private final long staleMinutes;
+    private final Duration timeout;
+    private final String geocodingUrl;
+    private final String forecastUrl;
+    private final List<String> ports;
+
+    private final Map<String, WeatherObservation> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<WeatherObservation>> inflight = new ConcurrentHashMap<>();
+    private final Map<String, GeoPoint> geocodes = new ConcurrentHashMap<>();
 
     public WeatherFetcherService(WeatherObservationRepository weatherObservationRepository,
-                                 WebClient.Builder webClientBuilder,
+                                 ApplicationEventPublisher eventPublisher,
+                                 @Qualifier("weatherWebClientBuilder") WebClient.Builder webClientBuilder,
                                  @Value("${weather.provider}") String provider,
-                                 @Value("${weather.recencyMinutes:30}") long recencyMinutes) {
+                                 @Value("${weather.recencyMinutes:30}") long recencyMinutes,
+                                 @Value("${weather.staleMinutes:30}") long staleMinutes,
+                                 @Value("${weather.timeoutSeconds:10}") long timeoutSeconds,
+                                 @Value("${weather.geocodingUrl:https://geocoding-api.open-meteo.com}") String geocodingUrl,
+                                 @Value("${weather.forecastUrl:https://api.open-meteo.com}") String forecastUrl,
+                                 @Value("${weather.ports:}") String ports) {
         this.weatherObservationRepository = weatherObservationRepository;
-        this.webClientBuilder = webClientBuilder;
+        this.eventPublisher = eventPublisher;
+        this.webClient = webClientBuilder.build();
         this.objectMapper = new ObjectMapper();
         this.provider = provider;
         this.recencyMinutes = recencyMinutes;
+        this.staleMinutes = staleMinutes;
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.geocodingUrl = geocodingUrl;
+        this.forecastUrl = forecastUrl;
+        this.ports = Arrays.stream(ports.split(","))
+                .map(String::trim)
+                .filter(p -> !p.isEmpty())
+                .collect(Collectors.toList());
     }
 
     /**
-     * Get the latest weather for the specified location. Uses cached data if available and fresh.
-     * Otherwise calls the configured provider.
+     * Get the latest weather for the specified location. Fresh cached data is returned directly;
+     * stale data within the stale window is returned while a background refresh runs. Otherwise
+     * the caller waits for the (shared) provider call.
      *
      * @param location port name to query
      * @return a WeatherDto representing current conditions
      */
-    @Transactional
     public WeatherDto getWeather(String location) {
         String loc = location.trim();
-        Instant cutoff = Instant.now().minus(recencyMinutes, ChronoUnit.MINUTES);
-        List<WeatherObservation> recents = weatherObservationRepository
-                .findByLocationAndObservedAtAfterOrderByObservedAtDesc(loc, cutoff);
-        if (!recents.isEmpty()) {
-            return toDto(recents.get(0));
+        Instant now = Instant.now();
+        WeatherObservation cached = cache.get(loc);
+        if (cached == null) {
+            cached = loadRecent(loc);
+            if (cached != null) {
+                cache.putIfAbsent(loc, cached);
+            }
         }
-        WeatherObservation obs = fetchFromProvider(loc);
+        if (cached != null) {
+            Instant observedAt = cached.getObservedAt();
+            if (observedAt.isAfter(now.minus(recencyMinutes, ChronoUnit.MINUTES))) {
+                return toDto(cached);
+            }
+            if (observedAt.isAfter(now.minus(recencyMinutes + staleMinutes, ChronoUnit.MINUTES))) {
+                refresh(loc).whenComplete((observation, ex) -> {
+                    if (ex != null) {
+                        log.warn("Background weather refresh for {} failed; serving stale data", loc, ex);
+                    }
+                });
+                return toDto(cached);
+            }
+        }
+        try {
+            return toDto(refresh(loc).get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        } catch (Exception ex) {
+            if (cached != null) {
+                return toDto(cached);
+            }
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable cause = ex instanceof ExecutionException && ex.getCause() != null ? ex.getCause() : ex;
+            throw new RuntimeException("Failed to fetch weather for " + loc, cause);
+        }
+    }
+
+    /**
+     * Start a provider fetch for the location unless one is already running, and return the
+     * shared future. The observation is persisted and cached when the fetch completes.
+     */
+    CompletableFuture<WeatherObservation> refresh(String location) {
+        CompletableFuture<WeatherObservation> created = new CompletableFuture<>();
+        CompletableFuture<WeatherObservation> existing = inflight.putIfAbsent(location, created);
+        if (existing != null) {
+            return existing;
+        }
+        fetchFromProvider(location)
+                .publishOn(Schedulers.boundedElastic())
+                .map(this::store)
+                .timeout(timeout)
+                .doFinally(signal -> inflight.remove(location, created))
+                .subscribe(created::complete, created::completeExceptionally);
+        return created;
+    }
+
+    /**
+     * Refresh all configured ports with one batched provider call. Runs on a fixed delay; does
+     * nothing when no ports are configured.
+     */
+    @Scheduled(fixedDelayString = "${weather.batchRefreshMinutes:15}", initialDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void refreshConfiguredPorts() {
+        if (ports.isEmpty()) {
+            return;
+        }
+        refreshPorts(ports)
+                .subscribe(
+                        saved -> log.debug("Refreshed weather for {} ports", saved.size()),
+                        ex -> log.warn("Batched weather refresh failed", ex));
+    }
+
+    /**
+     * Fetch current weather for several locations with a single forecast request. Locations are
+     * geocoded concurrently (memoised), unknown ones are skipped, and all resulting observations
+     * are persisted in one batch insert and placed in the cache.
+     *
+     * @return the stored observations, in the order of the resolved locations
+     */
+    public Mono<List<WeatherObservation>> refreshPorts(List<String> locations) {
+        if (!"open-meteo".equalsIgnoreCase(provider)) {
+            return Mono.error(new IllegalStateException("Unsupported weather provider: " + provider));
+        }
+        return Flux.fromIterable(locations)
+                .map(String::trim)
+                .distinct()
+                .flatMapSequential(loc -> geocode(loc)
+                        .map(point -> new Port(loc, point))
+                        .onErrorResume(ex -> {
+                            log.warn("Skipping weather refresh for {}: {}", loc, ex.getMessage());
+                            return Mono.empty();
+                        }))
+                .collectList()
+                .filter(resolved -> !resolved.isEmpty())
+                .flatMap(resolved -> webClient.get()
+                        .uri(forecastUrl + "/v1/forecast?latitude={lat}&longitude={lon}&current=temperature_2m,wind_speed_10m,relative_humidity_2m,weather_code",
+                                resolved.stream().map(p -> String.valueOf(p.point().latitude())).collect(Collectors.joining(",")),
+                                resolved.stream().map(p -> String.valueOf(p.point().longitude())).collect(Collectors.joining(",")))
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .map(body -> toObservations(resolved, readTree(body))))
+                .timeout(timeout)
+                .publishOn(Schedulers.boundedElastic())
+                .map(observations -> {
+                    weatherObservationRepository.insertAll(observations);
+                    observations.forEach(obs -> {
+                        cache.put(obs.getLocation(), obs);
+                        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.WEATHER, obs.getLocation()));
+                    });
+                    return observations;
+                });
+    }
+
+    /**
+     * Map a multi-location forecast response to observations. Open-Meteo returns an array with one
+     * element per coordinate pair, or a single object when only one location was requested.
+     */
+    private List<WeatherObservation> toObservations(List<Port> resolved, JsonNode json) {
+        List<WeatherObservation> observations = new ArrayList<>(resolved.size());
+        for (int i = 0; i < resolved.size(); i++) {
+            JsonNode element = json.isArray() ? json.get(i) : (i == 0 ? json : null);
+            if (element != null) {
+                observations.add(toObservation(resolved.get(i).location(), element.path("current")));
+            }
+        }
+        return observations;
+    }
+
+    private WeatherObservation store(WeatherObservation obs) {
         weatherObservationRepository.save(obs);
-        return toDto(obs);
+        cache.put(obs.getLocation(), obs);
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.WEATHER, obs.getLocation()));
+        return obs;
+    }
+
+    /**
+     * Seed the in-memory cache from the most recent persisted observation still inside the stale window.
+     */
+    private WeatherObservation loadRecent(String location) {
+        Instant cutoff = Instant.now().minus(recencyMinutes + staleMinutes, ChronoUnit.MINUTES);
+        List<WeatherObservation> recents = weatherObservationRepository
+                .findByLocationAndObservedAtAfterOrderByObservedAtDesc(location, cutoff);
+        return recents.isEmpty() ? null : recents.get(0);
     }
 
     private WeatherDto toDto(WeatherObservation obs) {
@@ -82,69 +265,72 @@ public class WeatherFetcherService {
     /**
      * Fetch current weather data for the given location by calling the Open-Meteo APIs.
      */
-    private WeatherObservation fetchFromProvider(String location) {
+    private Mono<WeatherObservation> fetchFromProvider(String location) {
         if (!"open-meteo".equalsIgnoreCase(provider)) {
-            throw new IllegalStateException("Unsupported weather provider: " + provider);
+            return Mono.error(new IllegalStateException("Unsupported weather provider: " + provider));
         }
+        return geocode(location)
+                .flatMap(point -> webClient.get()
+                        .uri(forecastUrl + "/v1/forecast?latitude={lat}&longitude={lon}&current=temperature_2m,wind_speed_10m,relative_humidity_2m,weather_code",
+                                point.latitude(), point.longitude())
+                        .retrieve()
+                        .bodyToMono(String.class))
+                .map(body -> toObservation(location, readTree(body).path("current")));
+    }
 
-        try {
-            WebClient client = webClientBuilder.build();
-
-            // Step 1: geocode the location to lat/lon
-            String locEncoded = URLEncoder.encode(location, StandardCharsets.UTF_8);
-            String geocodeUrl = "https://geocoding-api.open-meteo.com/v1/search?name=" + locEncoded + "&count=1";
-
-            String geoBody = client.get()
-                    .uri(geocodeUrl)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            JsonNode geoJson = objectMapper.readTree(geoBody);
-            JsonNode results = geoJson.path("results");
-            if (!results.isArray() || results.isEmpty()) {
-                throw new RuntimeException("Location not found: " + location);
-            }
-            double lat = results.get(0).path("latitude").asDouble();
-            double lon = results.get(0).path("longitude").asDouble();
-
-            // Step 2: fetch current weather
-            String weatherUrl = String.format(
-                    "https://api.open-meteo.com/v1/forecast?latitude=%s&longitude=%s&current=temperature_2m,wind_speed_10m,relative_humidity_2m,weather_code",
-                    lat, lon
-            );
-
-            String weatherBody = client.get()
-                    .uri(weatherUrl)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            JsonNode weatherJson = objectMapper.readTree(weatherBody);
-            JsonNode current = weatherJson.path("current");
-            double temperature = current.path("temperature_2m").asDouble();
-            double windSpeed = current.path("wind_speed_10m").asDouble();
-            double humidity = current.path("relative_humidity_2m").asDouble();
-            int code = current.path("weather_code").asInt();
-
-            String condition = WeatherCodeMapper.mapCondition(code);
-            String icon = WeatherCodeMapper.mapIcon(code);
-            OperationalImpact impact = WeatherCodeMapper.determineImpact(windSpeed, code);
-
-            return WeatherObservation.builder()
-                    .id(UUID.randomUUID())
-                    .location(location)
-                    .temperature(temperature)
-                    .windSpeed(windSpeed)
-                    .humidity(humidity)
-                    .condition(condition)
-                    .icon(icon)
-                    .operationalImpact(impact)
-                    .observedAt(Instant.now())
-                    .build();
+    /**
+     * Resolve a location name to coordinates, calling the geocoding API only on first use.
+     */
+    private Mono<GeoPoint> geocode(String location) {
+        GeoPoint known = geocodes.get(location);
+        if (known != null) {
+            return Mono.just(known);
+        }
+        return webClient.get()
+                .uri(geocodingUrl + "/v1/search?name={name}&count=1", location)
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(body -> {
+                    JsonNode results = readTree(body).path("results");
+                    if (!results.isArray() || results.isEmpty()) {
+                        throw new IllegalArgumentException("Location not found: " + location);
+                    }
+                    GeoPoint point = new GeoPoint(
+                            results.get(0).path("latitude").asDouble(),
+                            results.get(0).path("longitude").asDouble());
+                    geocodes.put(location, point);
+                    return point;
+                });
+    }
 
-        } catch (Exception ex) {
-            throw new RuntimeException("Failed to fetch weather for " + location, ex);
+    private WeatherObservation toObservation(String location, JsonNode current) {
+        double temperature = current.path("temperature_2m").asDouble();
+        double windSpeed = current.path("wind_speed_10m").asDouble();
+        double humidity = current.path("relative_humidity_2m").asDouble();
+        int code = current.path("weather_code").asInt();
+
+        String condition = WeatherCodeMapper.mapCondition(code);
+        String icon = WeatherCodeMapper.mapIcon(code);
+        OperationalImpact impact = WeatherCodeMapper.determineImpact(windSpeed, code);
+
+        return WeatherObservation.builder()
+                .id(UUID.randomUUID())
+                .location(location)
+                .temperature(temperature)
+                .windSpeed(windSpeed)
+                .humidity(humidity)
+                .condition(condition)
+                .icon(icon)
+                .operationalImpact(impact)
+                .observedAt(Instant.now())
+                .build();
+    }
+
+    private JsonNode readTree(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (Exception e) {
+            throw new IllegalStateException("Malformed weather provider response", e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.surgeops.service;
+
+import com.surgeops.repo.WeatherObservationRepository;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Service that bounds the growth of the append-only weather_observations table. Raw observations
+ * are kept for a configurable number of days, older ones are downsampled to one per location and
+ * hour, and anything past the retention horizon is deleted.
+ */
+@Service
+public class WeatherRetentionService {
+
+    private static final Logger log = LoggerFactory.getLogger(WeatherRetentionService.class);
+
+    private final WeatherObservationRepository weatherObservationRepository;
+    private final long rawDays;
+    private final long retentionDays;
+
+    public WeatherRetentionService(WeatherObservationRepository weatherObservationRepository,
+                                   @Value("${weather.retention.rawDays:7}") long rawDays,
+                                   @Value("${weather.retention.days:90}") long retentionDays) {
+        this.weatherObservationRepository = weatherObservationRepository;
+        this.rawDays = rawDays;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Apply the retention policy. Runs daily by default.
+     */
+    @Scheduled(cron = "${weather.retention.cron:0 30 3 * * *}")
+    @Transactional
+    public void applyRetention() {
+        Instant now = Instant.now();
+        int deleted = weatherObservationRepository.deleteBefore(now.minus(retentionDays, ChronoUnit.DAYS));
+        int thinned = weatherObservationRepository.downsampleBefore(now.minus(rawDays, ChronoUnit.DAYS));
+        log.info("Weather retention removed {} expired and {} downsampled observations", deleted, thinned);
+    }
+}
@@ -5,10 +5,12 @@ import com.surgeops.entity.ContainerMove;
 import com.surgeops.entity.YardBlock;
 import com.surgeops.entity.YardBlockStatus;
 import com.surgeops.entity.YardUtilizationHistory;
+import com.surgeops.event.EntityChangedEvent;
 import com.surgeops.repo.ContainerMoveRepository;
 import com.surgeops.repo.YardBlockRepository;
 import com.surgeops.repo.YardUtilizationHistoryRepository;
 import jakarta.transaction.Transactional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
@@ -25,13 +27,16 @@ public class YardService {
     private final YardBlockRepository yardBlockRepository;
     private final YardUtilizationHistoryRepository historyRepository;
     private final ContainerMoveRepository containerMoveRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     public YardService(YardBlockRepository yardBlockRepository,
                        YardUtilizationHistoryRepository historyRepository,
-                       ContainerMoveRepository containerMoveRepository) {
+                       ContainerMoveRepository containerMoveRepository,
+                       ApplicationEventPublisher eventPublisher) {
         this.yardBlockRepository = yardBlockRepository;
         this.historyRepository = historyRepository;
         this.containerMoveRepository = containerMoveRepository;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -82,6 +87,8 @@ public class YardService {
 
         yardBlockRepository.save(fromBlock);
         yardBlockRepository.save(toBlock);
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.YARD_BLOCK, from));
+        eventPublisher.publishEvent(new EntityChangedEvent(EntityChangedEvent.YARD_BLOCK, to));
 
         // Log the move
         ContainerMove move = ContainerMove.builder()
@@ -0,0 +1,104 @@
+package com.surgeops.stub;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Local stand-in for the Azure OpenAI embeddings endpoint, used for load testing ingest without
+ * spending quota. Enabled with the {@code embeddings-stub} profile; point
+ * {@code azure.openai.endpoint} at {@code http://localhost:8080/stub} and set any API key.
+ *
+ * <p>Vectors are deterministic per input text and unit length, so cache and retrieval behaviour is
+ * repeatable. Each request is delayed by a fixed latency plus a per-input cost, and a configurable
+ * share of requests (or any request above the input limit) is rejected with 429 and Retry-After,
+ * mimicking service throttling.
+ */
+@RestController
+@Profile("embeddings-stub")
+@RequestMapping("/stub/openai/deployments/{deployment}")
+public class EmbeddingsStubController {
+
+    private final int dimensions;
+    private final long latencyMs;
+    private final long perInputMicros;
+    private final double throttleRate;
+    private final int retryAfterSeconds;
+    private final int maxInputs;
+
+    public EmbeddingsStubController(@Value("${azure.openai.embedding-dim:1536}") int dimensions,
+                                    @Value("${stub.embeddings.latency-ms:50}") long latencyMs,
+                                    @Value("${stub.embeddings.per-input-micros:200}") long perInputMicros,
+                                    @Value("${stub.embeddings.throttle-rate:0.05}") double throttleRate,
+                                    @Value("${stub.embeddings.retry-after-seconds:1}") int retryAfterSeconds,
+                                    @Value("${stub.embeddings.max-inputs:2048}") int maxInputs) {
+        this.dimensions = dimensions;
+        this.latencyMs = latencyMs;
+        this.perInputMicros = perInputMicros;
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.maxInputs = maxInputs;
+    }
+
+    @PostMapping("/embeddings")
+    public Mono<ResponseEntity<Map<String, Object>>> embeddings(@PathVariable String deployment,
+                                                                @RequestBody Map<String, Object> body) {
+        List<String> inputs = inputs(body.get("input"));
+        if (inputs.size() > maxInputs || ThreadLocalRandom.current().nextDouble() < throttleRate) {
+            return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(Map.of("error", Map.of("code", "429", "message", "Rate limit reached (stub)"))));
+        }
+        int dims = body.get("dimensions") instanceof Number n ? n.intValue() : dimensions;
+        List<Map<String, Object>> data = new ArrayList<>(inputs.size());
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            data.add(Map.of("object", "embedding", "index", i, "embedding", vector(deployment, inputs.get(i), dims)));
+            tokens += (inputs.get(i).length() + 3) / 4;
+        }
+        Map<String, Object> response = Map.of(
+                "object", "list",
+                "model", deployment,
+                "data", data,
+                "usage", Map.of("prompt_tokens", tokens, "total_tokens", tokens));
+        Duration delay = Duration.ofMillis(latencyMs).plusNanos(perInputMicros * 1000 * inputs.size());
+        return Mono.delay(delay).thenReturn(ResponseEntity.ok(response));
+    }
+
+    private static List<String> inputs(Object input) {
+        if (input instanceof List<?> list) {
+            return list.stream().map(String::valueOf).toList();
+        }
+        return input != null ? List.of(String.valueOf(input)) : List.of();
+    }
+
+    private static float[] vector(String deployment, String text, int dimensions) {
+        SplittableRandom random = new SplittableRandom(((long) deployment.hashCode() << 32) ^ text.hashCode());
+        float[] vec = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vec[i] = (float) (random.nextDouble() * 2 - 1);
+            norm += vec[i] * vec[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vec[i] *= scale;
+        }
+        return vec;
+    }
+}
@@ -0,0 +1,100 @@
+package com.surgeops.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming parser for OpenAI-style embeddings responses. Numbers are read token by token straight
+ * into float arrays sized for the expected dimension, so no intermediate JSON tree or boxed values
+ * are created; the only per-vector allocation is the returned array itself. Every field other than
+ * data[].index and data[].embedding is skipped without being materialised.
+ */
+public final class EmbeddingResponseParser {
+
+    private final JsonFactory factory;
+
+    public EmbeddingResponseParser(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Parse the response body into vectors ordered by their index field (response order for items
+     * without one).
+     *
+     * @param expectedDim dimension used to size each vector up front; vectors of another length are
+     *                    still read correctly, at the cost of a resize
+     */
+    public List<float[]> parse(byte[] body, int expectedDim) throws IOException {
+        List<float[]> vectors = new ArrayList<>();
+        int[] indexes = new int[16];
+        boolean hasIndexes = true;
+        try (JsonParser parser = factory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        int index = -1;
+                        float[] vec = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String itemField = parser.currentName();
+                            JsonToken itemValue = parser.nextToken();
+                            if ("embedding".equals(itemField) && itemValue == JsonToken.START_ARRAY) {
+                                vec = readVector(parser, expectedDim);
+                            } else if ("index".equals(itemField) && itemValue == JsonToken.VALUE_NUMBER_INT) {
+                                index = parser.getIntValue();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        if (vectors.size() == indexes.length) {
+                            indexes = Arrays.copyOf(indexes, indexes.length * 2);
+                        }
+                        indexes[vectors.size()] = index;
+                        vectors.add(vec != null ? vec : new float[0]);
+                        hasIndexes &= index >= 0;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!hasIndexes) {
+            return vectors;
+        }
+        float[][] ordered = new float[vectors.size()][];
+        for (int i = 0; i < vectors.size(); i++) {
+            int index = indexes[i];
+            if (index >= ordered.length || ordered[index] != null) {
+                throw new IOException("Invalid embedding index " + index);
+            }
+            ordered[index] = vectors.get(i);
+        }
+        return Arrays.asList(ordered);
+    }
+
+    private static float[] readVector(JsonParser parser, int expectedDim) throws IOException {
+        float[] vec = new float[Math.max(1, expectedDim)];
+        int n = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IOException("Unexpected token in embedding: " + token);
+            }
+            if (n == vec.length) {
+                vec = Arrays.copyOf(vec, vec.length * 2);
+            }
+            vec[n++] = parser.getFloatValue();
+        }
+        return n == vec.length ? vec : Arrays.copyOf(vec, n);
+    }
+}
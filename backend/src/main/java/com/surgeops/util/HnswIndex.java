@@ -0,0 +1,269 @@
+package com.surgeops.util;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hierarchical navigable small world graph over unit-length vectors packed back to back in one
+ * float array, searched by inner product (equal to cosine similarity for unit vectors). The graph
+ * is built once over a fixed set of vectors and is read-only afterwards, so concurrent searches
+ * need no locking. Searches borrow generation-stamped visited arrays from a small pool owned by
+ * the index, so a search allocates nothing proportional to the index size and the arrays go away
+ * with the index rather than lingering in the searching threads.
+ */
+public class HnswIndex {
+
+    private final float[] vectors;
+    private final int dim;
+    private final int size;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    /** links[node][level] holds the node's neighbours on that level. */
+    private final int[][][] links;
+    /** Idle visited arrays, at most one per processor; searches beyond that allocate their own. */
+    private final BlockingQueue<Visited> visitedPool;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private HnswIndex(float[] vectors, int dim, int size, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.dim = dim;
+        this.size = size;
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+        this.links = new int[size][][];
+        this.visitedPool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build a graph over the first size vectors of the packed array.
+     */
+    public static HnswIndex build(float[] vectors, int dim, int size, int m, int efConstruction, long seed) {
+        HnswIndex index = new HnswIndex(vectors, dim, size, m, efConstruction);
+        SplittableRandom random = new SplittableRandom(seed);
+        Visited visited = index.borrowVisited();
+        for (int node = 0; node < size; node++) {
+            index.insert(node, (int) (-Math.log(1 - random.nextDouble()) * index.levelMultiplier), visited);
+        }
+        index.visitedPool.offer(visited);
+        return index;
+    }
+
+    /**
+     * Return the nodes of the approximately k most similar vectors, best first.
+     *
+     * @param query unit-length query vector of length dim
+     * @param ef    candidate list size; larger is slower with better recall
+     */
+    public int[] search(float[] query, int k, int ef) {
+        if (entryPoint < 0 || k <= 0) {
+            return new int[0];
+        }
+        int current = entryPoint;
+        float currentSim = VectorMath.dot(query, vectors, current * dim);
+        for (int level = maxLevel; level > 0; level--) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int neighbour : links[current][level]) {
+                    float sim = VectorMath.dot(query, vectors, neighbour * dim);
+                    if (sim > currentSim) {
+                        currentSim = sim;
+                        current = neighbour;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        Visited visited = borrowVisited();
+        Candidate[] found;
+        try {
+            found = searchLayer(query, -1, current, Math.max(ef, k), 0, visited);
+        } finally {
+            visitedPool.offer(visited);
+        }
+        int n = Math.min(k, found.length);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = found[i].node;
+        }
+        return result;
+    }
+
+    private Visited borrowVisited() {
+        Visited visited = visitedPool.poll();
+        return visited != null ? visited : new Visited(size);
+    }
+
+    private void insert(int node, int level, Visited visited) {
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[0];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        int offset = node * dim;
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            Candidate[] nearest = searchLayer(null, offset, current, 1, l, visited);
+            current = nearest[0].node;
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Candidate[] candidates = searchLayer(null, offset, current, efConstruction, l, visited);
+            int[] neighbours = selectNeighbours(candidates, l == 0 ? maxM0 : m);
+            links[node][l] = neighbours;
+            for (int neighbour : neighbours) {
+                connect(neighbour, node, l);
+            }
+            current = candidates[0].node;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Add a back link from node to target, re-selecting node's neighbours when the list is full.
+     */
+    private void connect(int node, int target, int level) {
+        int[] existing = links[node][level];
+        int limit = level == 0 ? maxM0 : m;
+        int[] grown = Arrays.copyOf(existing, existing.length + 1);
+        grown[existing.length] = target;
+        if (grown.length <= limit) {
+            links[node][level] = grown;
+            return;
+        }
+        Candidate[] ranked = new Candidate[grown.length];
+        for (int i = 0; i < grown.length; i++) {
+            ranked[i] = new Candidate(grown[i], VectorMath.dot(vectors, node * dim, grown[i] * dim, dim));
+        }
+        Arrays.sort(ranked);
+        links[node][level] = selectNeighbours(ranked, limit);
+    }
+
+    /**
+     * Pick up to limit neighbours from candidates sorted most similar first, using the HNSW
+     * heuristic: a candidate is kept only if it is more similar to the base node than to every
+     * neighbour already kept. This favours neighbours in different directions, which keeps links
+     * between clusters that plain closest-first selection would prune away.
+     */
+    private int[] selectNeighbours(Candidate[] sortedCandidates, int limit) {
+        int[] result = new int[Math.min(limit, sortedCandidates.length)];
+        int n = 0;
+        for (Candidate candidate : sortedCandidates) {
+            if (n == result.length) {
+                break;
+            }
+            boolean diverse = true;
+            for (int i = 0; i < n && diverse; i++) {
+                diverse = VectorMath.dot(vectors, candidate.node * dim, result[i] * dim, dim) < candidate.similarity;
+            }
+            if (diverse) {
+                result[n++] = candidate.node;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Best-first search of one layer from an entry node. The query is either an external vector or,
+     * during construction, the vector of an indexed node at queryOffset.
+     *
+     * @return up to ef candidates, most similar first
+     */
+    private Candidate[] searchLayer(float[] query, int queryOffset, int entry, int ef, int level, Visited visited) {
+        visited.clear();
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>();
+        PriorityQueue<Candidate> best = new PriorityQueue<>((a, b) -> Float.compare(a.similarity, b.similarity));
+        Candidate start = new Candidate(entry, similarity(query, queryOffset, entry));
+        visited.add(entry);
+        frontier.add(start);
+        best.add(start);
+        while (!frontier.isEmpty()) {
+            Candidate candidate = frontier.poll();
+            if (best.size() >= ef && candidate.similarity < best.peek().similarity) {
+                break;
+            }
+            int[][] nodeLinks = links[candidate.node];
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            for (int neighbour : nodeLinks[level]) {
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                float sim = similarity(query, queryOffset, neighbour);
+                if (best.size() < ef || sim > best.peek().similarity) {
+                    Candidate next = new Candidate(neighbour, sim);
+                    frontier.add(next);
+                    best.add(next);
+                    if (best.size() > ef) {
+                        best.poll();
+                    }
+                }
+            }
+        }
+        Candidate[] result = best.toArray(new Candidate[0]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private float similarity(float[] query, int queryOffset, int node) {
+        return query != null
+                ? VectorMath.dot(query, vectors, node * dim)
+                : VectorMath.dot(vectors, queryOffset, node * dim, dim);
+    }
+
+    /**
+     * Set of visited nodes cleared in constant time: a node is visited when its mark equals the
+     * current stamp, and clearing moves to the next stamp.
+     */
+    private static final class Visited {
+        private final int[] marks;
+        private int stamp;
+
+        Visited(int size) {
+            this.marks = new int[size];
+        }
+
+        void clear() {
+            if (++stamp == 0) {
+                Arrays.fill(marks, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * Mark the node visited, returning false if it already was.
+         */
+        boolean add(int node) {
+            if (marks[node] == stamp) {
+                return false;
+            }
+            marks[node] = stamp;
+            return true;
+        }
+    }
+
+    /**
+     * Graph node with its similarity to the current query; natural order is most similar first.
+     */
+    private record Candidate(int node, float similarity) implements Comparable<Candidate> {
+        @Override
+        public int compareTo(Candidate other) {
+            return Float.compare(other.similarity, similarity);
+        }
+    }
+}
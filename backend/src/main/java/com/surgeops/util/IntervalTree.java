@@ -0,0 +1,250 @@
+package com.surgeops.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Augmented AVL tree of half-open intervals {@code [start, end)} keyed by an identifier. Every node
+ * stores the maximum end of its subtree so overlap queries can prune whole branches, giving
+ * O(log n) inserts, removals and "any overlap" checks and O(log n + k) enumeration of the k
+ * overlapping intervals. Not thread safe; callers synchronise externally.
+ *
+ * @param <K> identifier type of the stored intervals
+ */
+public final class IntervalTree<K> {
+
+    /**
+     * A stored interval together with its identifier. Bounds are epoch milliseconds.
+     */
+    public record Interval<K>(K key, long start, long end) {}
+
+    private static final class Node<K> {
+        final Interval<K> interval;
+        final long seq;
+        long maxEnd;
+        int height = 1;
+        Node<K> left;
+        Node<K> right;
+
+        Node(Interval<K> interval, long seq) {
+            this.interval = interval;
+            this.seq = seq;
+            this.maxEnd = interval.end();
+        }
+    }
+
+    private final Map<K, Node<K>> index = new HashMap<>();
+    private Node<K> root;
+    private long nextSeq;
+
+    /**
+     * Insert or replace the interval stored under the given key.
+     */
+    public void put(K key, long start, long end) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Interval end must be after start");
+        }
+        remove(key);
+        Node<K> node = new Node<>(new Interval<>(key, start, end), nextSeq++);
+        root = insert(root, node);
+        index.put(key, node);
+    }
+
+    /**
+     * Remove the interval stored under the given key, if any.
+     *
+     * @return true if an interval was removed
+     */
+    public boolean remove(K key) {
+        Node<K> node = index.remove(key);
+        if (node == null) {
+            return false;
+        }
+        root = delete(root, node.interval.start(), node.seq);
+        return true;
+    }
+
+    public boolean contains(K key) {
+        return index.containsKey(key);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Determine whether any stored interval overlaps {@code [start, end)}, ignoring the interval
+     * stored under {@code exclude} (may be null).
+     */
+    public boolean overlapsAny(long start, long end, K exclude) {
+        if (exclude == null || !index.containsKey(exclude)) {
+            Node<K> n = root;
+            while (n != null) {
+                if (overlaps(n.interval, start, end)) {
+                    return true;
+                }
+                n = (n.left != null && n.left.maxEnd > start) ? n.left : n.right;
+            }
+            return false;
+        }
+        for (Interval<K> interval : overlapping(start, end)) {
+            if (!interval.key().equals(exclude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return every stored interval overlapping {@code [start, end)}, ordered by start.
+     */
+    public List<Interval<K>> overlapping(long start, long end) {
+        List<Interval<K>> result = new ArrayList<>();
+        collect(root, start, end, result);
+        return result;
+    }
+
+    /**
+     * Return the gaps within {@code [start, end)} not covered by any stored interval, as
+     * {@code [from, to)} pairs ordered by time.
+     */
+    public List<long[]> gaps(long start, long end) {
+        List<long[]> gaps = new ArrayList<>();
+        long cursor = start;
+        for (Interval<K> interval : overlapping(start, end)) {
+            if (interval.start() > cursor) {
+                gaps.add(new long[]{cursor, interval.start()});
+            }
+            cursor = Math.max(cursor, interval.end());
+            if (cursor >= end) {
+                break;
+            }
+        }
+        if (cursor < end) {
+            gaps.add(new long[]{cursor, end});
+        }
+        return gaps;
+    }
+
+    /**
+     * Total time within {@code [start, end)} covered by at least one stored interval.
+     */
+    public long coveredLength(long start, long end) {
+        long free = 0;
+        for (long[] gap : gaps(start, end)) {
+            free += gap[1] - gap[0];
+        }
+        return (end - start) - free;
+    }
+
+    private static boolean overlaps(Interval<?> interval, long start, long end) {
+        return interval.start() < end && start < interval.end();
+    }
+
+    private void collect(Node<K> n, long start, long end, List<Interval<K>> out) {
+        if (n == null || n.maxEnd <= start) {
+            return;
+        }
+        collect(n.left, start, end, out);
+        if (overlaps(n.interval, start, end)) {
+            out.add(n.interval);
+        }
+        if (n.interval.start() < end) {
+            collect(n.right, start, end, out);
+        }
+    }
+
+    private static int compare(long start, long seq, Node<?> n) {
+        int c = Long.compare(start, n.interval.start());
+        return c != 0 ? c : Long.compare(seq, n.seq);
+    }
+
+    private Node<K> insert(Node<K> n, Node<K> node) {
+        if (n == null) {
+            return node;
+        }
+        if (compare(node.interval.start(), node.seq, n) < 0) {
+            n.left = insert(n.left, node);
+        } else {
+            n.right = insert(n.right, node);
+        }
+        return rebalance(n);
+    }
+
+    private Node<K> delete(Node<K> n, long start, long seq) {
+        if (n == null) {
+            return null;
+        }
+        int c = compare(start, seq, n);
+        if (c < 0) {
+            n.left = delete(n.left, start, seq);
+        } else if (c > 0) {
+            n.right = delete(n.right, start, seq);
+        } else {
+            if (n.left == null) {
+                return n.right;
+            }
+            if (n.right == null) {
+                return n.left;
+            }
+            Node<K> successor = n.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = delete(n.right, successor.interval.start(), successor.seq);
+            successor.left = n.left;
+            n = successor;
+        }
+        return rebalance(n);
+    }
+
+    private static int height(Node<?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static <K> void update(Node<K> n) {
+        n.height = 1 + Math.max(height(n.left), height(n.right));
+        long max = n.interval.end();
+        if (n.left != null) max = Math.max(max, n.left.maxEnd);
+        if (n.right != null) max = Math.max(max, n.right.maxEnd);
+        n.maxEnd = max;
+    }
+
+    private static <K> Node<K> rotateRight(Node<K> n) {
+        Node<K> l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        update(l);
+        return l;
+    }
+
+    private static <K> Node<K> rotateLeft(Node<K> n) {
+        Node<K> r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        update(r);
+        return r;
+    }
+
+    private static <K> Node<K> rebalance(Node<K> n) {
+        update(n);
+        int balance = height(n.left) - height(n.right);
+        if (balance > 1) {
+            if (height(n.left.left) < height(n.left.right)) {
+                n.left = rotateLeft(n.left);
+            }
+            return rotateRight(n);
+        }
+        if (balance < -1) {
+            if (height(n.right.right) < height(n.right.left)) {
+                n.right = rotateRight(n.right);
+            }
+            return rotateLeft(n);
+        }
+        return n;
+    }
+}
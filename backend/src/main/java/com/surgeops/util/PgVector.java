@@ -0,0 +1,161 @@
+package com.surgeops.util;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * JDBC value for a pgvector {@code vector} column. Once a connection is {@linkplain #register
+ * registered}, the driver sends and receives it in pgvector's binary format (int16 dimension,
+ * int16 reserved, then big-endian float4 values), so no per-dimension text formatting or parsing
+ * happens on either side. The text form is still supported for connections and result sets that
+ * do not use binary transfer.
+ */
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    private static final String TYPE = "vector";
+
+    private float[] vec;
+
+    public PgVector() {
+        type = TYPE;
+    }
+
+    public PgVector(float[] vec) {
+        this();
+        this.vec = vec;
+    }
+
+    /**
+     * Register the type on the given (possibly pooled) connection and enable binary transfer for
+     * it. Cheap to call repeatedly; the physical connection remembers the registration.
+     */
+    public static void register(Connection connection) throws SQLException {
+        BaseConnection base = connection.unwrap(BaseConnection.class);
+        if (base.getTypeInfo().getPGobject(TYPE) == PgVector.class) {
+            return;
+        }
+        base.addDataType(TYPE, PgVector.class);
+        int oid = base.getTypeInfo().getPGType(TYPE);
+        if (oid != 0) {
+            base.getQueryExecutor().addBinarySendOid(oid);
+            base.getQueryExecutor().addBinaryReceiveOid(oid);
+        }
+    }
+
+    /**
+     * Convert a value read from a vector column into a float array, whichever form the driver
+     * returned it in.
+     */
+    public static float[] toArray(Object value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof PgVector vector) {
+            return vector.toArray();
+        }
+        if (value instanceof PGobject object) {
+            return parse(object.getValue());
+        }
+        if (value instanceof String text) {
+            return parse(text);
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to a vector");
+    }
+
+    public float[] toArray() {
+        return vec;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        vec = parse(value);
+    }
+
+    @Override
+    public String getValue() {
+        if (vec == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(vec.length * 12 + 2);
+        sb.append('[');
+        for (int i = 0; i < vec.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vec[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    @Override
+    public void setByteValue(byte[] bytes, int offset) throws SQLException {
+        int dim = ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+        float[] result = new float[dim];
+        int pos = offset + 4;
+        for (int i = 0; i < dim; i++, pos += 4) {
+            int bits = ((bytes[pos] & 0xff) << 24) | ((bytes[pos + 1] & 0xff) << 16)
+                    | ((bytes[pos + 2] & 0xff) << 8) | (bytes[pos + 3] & 0xff);
+            result[i] = Float.intBitsToFloat(bits);
+        }
+        vec = result;
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vec == null ? 0 : 4 + vec.length * 4;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        bytes[offset] = (byte) (vec.length >>> 8);
+        bytes[offset + 1] = (byte) vec.length;
+        bytes[offset + 2] = 0;
+        bytes[offset + 3] = 0;
+        int pos = offset + 4;
+        for (float f : vec) {
+            int bits = Float.floatToRawIntBits(f);
+            bytes[pos++] = (byte) (bits >>> 24);
+            bytes[pos++] = (byte) (bits >>> 16);
+            bytes[pos++] = (byte) (bits >>> 8);
+            bytes[pos++] = (byte) bits;
+        }
+    }
+
+    private static float[] parse(String literal) {
+        if (literal == null) {
+            return null;
+        }
+        String body = literal.trim();
+        if (body.startsWith("[")) body = body.substring(1);
+        if (body.endsWith("]")) body = body.substring(0, body.length() - 1);
+        if (body.isBlank()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] result = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Float.parseFloat(parts[i].trim());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PgVector other && Arrays.equals(vec, other.vec);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vec);
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        PgVector copy = (PgVector) super.clone();
+        copy.vec = vec != null ? vec.clone() : null;
+        return copy;
+    }
+}
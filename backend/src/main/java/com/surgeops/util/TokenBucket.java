@@ -0,0 +1,58 @@
+package com.surgeops.util;
+
+/**
+ * Thread-safe token bucket rate limiter with reservations. A caller reserves the tokens it needs
+ * and is told how long to wait before proceeding; the bucket may go negative, so later callers
+ * queue behind earlier reservations instead of overtaking them.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param capacity        maximum tokens held (the burst size)
+     * @param tokensPerMinute refill rate
+     */
+    public TokenBucket(long capacity, long tokensPerMinute) {
+        this.capacity = Math.max(1, capacity);
+        this.refillPerNano = Math.max(1, tokensPerMinute) / 60_000_000_000.0;
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Reserve tokens for a request, returning the nanoseconds to wait before it may proceed, or -1
+     * (reserving nothing) if that wait would exceed maxWaitNanos. Costs above the capacity are
+     * capped at the capacity so oversized requests can still run once the bucket is full.
+     */
+    public synchronized long reserve(long cost, long maxWaitNanos) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+        double needed = Math.min(Math.max(0, cost), capacity);
+        if (tokens >= needed) {
+            tokens -= needed;
+            return 0;
+        }
+        long wait = (long) Math.ceil((needed - tokens) / refillPerNano);
+        if (wait > maxWaitNanos) {
+            return -1;
+        }
+        tokens -= needed;
+        return wait;
+    }
+
+    /**
+     * Return tokens reserved for a request that was abandoned before it ran.
+     */
+    public synchronized void refund(long cost) {
+        tokens = Math.min(capacity, tokens + Math.min(Math.max(0, cost), capacity));
+    }
+
+    public synchronized double available() {
+        return tokens;
+    }
+}
@@ -0,0 +1,96 @@
+package com.surgeops.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local token counter approximating the cl100k / o200k BPE tokenizers used by GPT-4 class models,
+ * without their vocabulary files or a network call. Text is split with the same pre-tokenizer
+ * pattern the real tokenizers use (words with their leading space, digit groups of up to three,
+ * punctuation runs, whitespace); each piece is then costed by shape: common-length words are one
+ * token, longer words one more per four further letters, punctuation one per two characters.
+ * The result is an estimate meant for budgeting prompts, not for billing.
+ */
+public final class TokenCounter {
+
+    private static final Pattern PIECE = Pattern.compile(
+            "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    /** Letters covered by a single token for a typical word piece. */
+    private static final int WORD_LETTERS = 7;
+
+    private TokenCounter() {}
+
+    /**
+     * Estimated number of tokens in the text.
+     */
+    public static int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        Matcher matcher = PIECE.matcher(text);
+        while (matcher.find()) {
+            tokens += pieceTokens(text, matcher.start(), matcher.end());
+        }
+        return tokens;
+    }
+
+    /**
+     * Longest prefix of the text, cut between pre-tokenizer pieces, whose estimate is at most
+     * maxTokens; the text itself if it fits.
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        int tokens = 0;
+        Matcher matcher = PIECE.matcher(text);
+        while (matcher.find()) {
+            tokens += pieceTokens(text, matcher.start(), matcher.end());
+            if (tokens > maxTokens) {
+                return text.substring(0, matcher.start());
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Estimated tokens of a chat message: its content plus the per-message framing overhead.
+     */
+    public static int countMessage(String content) {
+        return 4 + count(content);
+    }
+
+    private static int pieceTokens(String text, int start, int end) {
+        int letters = 0;
+        int digits = 0;
+        int other = 0;
+        int nonAscii = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c > 0x7f) {
+                nonAscii++;
+            }
+            if (Character.isLetter(c)) {
+                letters++;
+            } else if (Character.isDigit(c)) {
+                digits++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+        }
+        int tokens;
+        if (letters > 0) {
+            tokens = 1 + Math.max(0, (letters - WORD_LETTERS + 3) / 4);
+        } else if (digits > 0) {
+            tokens = 1;
+        } else if (other > 0) {
+            tokens = (other + 1) / 2;
+        } else {
+            tokens = 1;
+        }
+        // Characters outside ASCII are often split into byte-level tokens
+        return tokens + nonAscii / 2;
+    }
+}
@@ -0,0 +1,67 @@
+package com.surgeops.util;
+
+/**
+ * Dense vector arithmetic over float arrays, including vectors packed back to back in one array.
+ * Loops are unrolled with independent accumulators so the JIT can keep several multiply-adds in
+ * flight and auto-vectorise them.
+ */
+public final class VectorMath {
+    private VectorMath() {}
+
+    /**
+     * Dot product of {@code a} with the vector of length a.length starting at {@code offset} in
+     * {@code packed}.
+     */
+    public static float dot(float[] a, float[] packed, int offset) {
+        int dim = a.length;
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (int upper = dim & ~3; i < upper; i += 4) {
+            s0 += a[i] * packed[offset + i];
+            s1 += a[i + 1] * packed[offset + i + 1];
+            s2 += a[i + 2] * packed[offset + i + 2];
+            s3 += a[i + 3] * packed[offset + i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += a[i] * packed[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Dot product of two vectors of length dim packed in the same array.
+     */
+    public static float dot(float[] packed, int offsetA, int offsetB, int dim) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (int upper = dim & ~3; i < upper; i += 4) {
+            s0 += packed[offsetA + i] * packed[offsetB + i];
+            s1 += packed[offsetA + i + 1] * packed[offsetB + i + 1];
+            s2 += packed[offsetA + i + 2] * packed[offsetB + i + 2];
+            s3 += packed[offsetA + i + 3] * packed[offsetB + i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += packed[offsetA + i] * packed[offsetB + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Copy {@code src} into {@code dest} at the given offset scaled to unit length, truncating or
+     * zero-padding it to dim values. A zero vector is copied unchanged.
+     */
+    public static void normaliseInto(float[] src, float[] dest, int offset, int dim) {
+        int len = Math.min(src.length, dim);
+        double norm = 0;
+        for (int i = 0; i < len; i++) {
+            norm += (double) src[i] * src[i];
+        }
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 1f;
+        for (int i = 0; i < len; i++) {
+            dest[offset + i] = src[i] * scale;
+        }
+        for (int i = len; i < dim; i++) {
+            dest[offset + i] = 0f;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.surgeops.util;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe least-recently-used cache bounded by the total weight of its values rather than
+ * their count, with a fixed time to live per entry. The weigher typically estimates bytes, so a
+ * cache of large arrays and one of small objects can be given comparable memory budgets.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class WeightedTtlCache<K, V> {
+
+    private record Entry<V>(V value, long weight, long expiresAtNanos) {}
+
+    private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongFunction<V> weigher;
+    private long weight;
+
+    public WeightedTtlCache(long maxWeight, Duration ttl, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+    }
+
+    /**
+     * Return the cached value, or null if absent or expired.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos() > 0) {
+            remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    /**
+     * Insert a value, evicting least recently used entries until the total weight fits. Values
+     * heavier than the whole budget are not cached.
+     */
+    public synchronized void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        remove(key);
+        if (w > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, w, System.nanoTime() + ttlNanos));
+        weight += w;
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void remove(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Total weight of the cached values.
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+}
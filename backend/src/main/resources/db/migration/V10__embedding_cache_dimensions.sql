@@ -0,0 +1,9 @@
+-- Key the embedding cache by dimension too, so changing the configured dimension never reuses
+-- vectors of the old length
+
+ALTER TABLE embedding_cache ADD COLUMN IF NOT EXISTS dimensions INT;
+UPDATE embedding_cache SET dimensions = vector_dims(embedding) WHERE dimensions IS NULL;
+ALTER TABLE embedding_cache ALTER COLUMN dimensions SET NOT NULL;
+
+ALTER TABLE embedding_cache DROP CONSTRAINT IF EXISTS embedding_cache_pkey;
+ALTER TABLE embedding_cache ADD PRIMARY KEY (content_hash, deployment, dimensions);
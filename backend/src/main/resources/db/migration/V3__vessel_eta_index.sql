@@ -0,0 +1,2 @@
+-- Support range scans on vessel ETA for graph bucketing and surge windows
+CREATE INDEX IF NOT EXISTS idx_vessels_eta ON vessels(eta);
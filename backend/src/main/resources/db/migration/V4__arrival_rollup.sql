@@ -0,0 +1,14 @@
+-- Hourly rollup of vessel arrivals and projected TEU, maintained incrementally on vessel writes
+
+CREATE TABLE IF NOT EXISTS arrival_rollup (
+  bucket_start TIMESTAMPTZ PRIMARY KEY,
+  arrivals INT NOT NULL DEFAULT 0,
+  projected_teu BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO arrival_rollup (bucket_start, arrivals, projected_teu)
+SELECT date_bin(INTERVAL '1 hour', eta, TIMESTAMPTZ '2001-01-01 00:00:00+00'), COUNT(*), COALESCE(SUM(expected_teu), 0)
+FROM vessels
+WHERE eta IS NOT NULL
+GROUP BY 1
+ON CONFLICT (bucket_start) DO NOTHING;
@@ -0,0 +1,2 @@
+-- Serve "latest observation per location" lookups and per-location recency checks from an index
+CREATE INDEX IF NOT EXISTS idx_weather_location_observed ON weather_observations(location, observed_at DESC);
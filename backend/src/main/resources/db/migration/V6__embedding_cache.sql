@@ -0,0 +1,11 @@
+-- Content hashes for knowledge base chunks and a persistent embedding cache keyed by hash and deployment
+
+ALTER TABLE kb_chunks ADD COLUMN IF NOT EXISTS content_hash TEXT;
+
+CREATE TABLE IF NOT EXISTS embedding_cache (
+  content_hash TEXT NOT NULL,
+  deployment TEXT NOT NULL,
+  embedding VECTOR NOT NULL,
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (content_hash, deployment)
+);
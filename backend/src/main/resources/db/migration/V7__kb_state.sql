@@ -0,0 +1,14 @@
+-- Generation pointer for the knowledge base. kb_chunks is always the active generation; shadow
+-- rebuilds populate kb_chunks_g<n> and swap it in by renaming, recording the new generation here.
+
+CREATE TABLE IF NOT EXISTS kb_state (
+  id INT PRIMARY KEY CHECK (id = 1),
+  generation BIGINT NOT NULL,
+  embeddings_deployment TEXT,
+  embedding_dim INT,
+  swapped_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+INSERT INTO kb_state (id, generation, embeddings_deployment, embedding_dim)
+VALUES (1, 1, NULL, 1536)
+ON CONFLICT (id) DO NOTHING;
@@ -0,0 +1,11 @@
+-- Full-text search over knowledge base chunks for lexical retrieval. Titles weigh more than content.
+-- The english configuration keeps codes such as B5, BERTH-2 or IMO numbers as searchable lexemes.
+
+ALTER TABLE kb_chunks
+  ADD COLUMN IF NOT EXISTS tsv tsvector
+  GENERATED ALWAYS AS (
+    setweight(to_tsvector('english', coalesce(title, '')), 'A') ||
+    setweight(to_tsvector('english', coalesce(content, '')), 'B')
+  ) STORED;
+
+CREATE INDEX IF NOT EXISTS idx_kb_chunks_tsv ON kb_chunks USING GIN (tsv);
@@ -0,0 +1,3 @@
+-- Serve the grounding facts' "latest alerts" and "TEU moved in the last 24h" from indexes
+CREATE INDEX IF NOT EXISTS idx_alerts_created_at ON alerts(created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_container_moves_ts ON container_moves(ts);